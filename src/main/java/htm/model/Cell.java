@@ -1,23 +1,33 @@
 package htm.model;
 
 import htm.model.fractal.Composite;
-import htm.utils.CircularArrayList;
+import htm.utils.MathUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 public class Cell extends Composite<Column, DistalDendriteSegment>{
   private static final Log LOG = LogFactory.getLog(Cell.class);
 
   /**
-   * WP
-   * <p/>
-   * newSynapseCount
-   * The maximum number of synapses added to a segment during learning.
+   * The maximum number of synapses of a segment, the weakest synapses are removed to make room for new ones.
    */
 
   public static int AMOUNT_OF_SYNAPSES = 30;
+  /**
+   * The maximum number of segments of a cell, the least recently active segment is deleted to make room for a new one.
+   */
+  public static int MAX_SEGMENTS = Config.DEFAULT_MAX_SEGMENTS;
+  /**
+   * The maximum number of queued segment updates of a cell, the oldest update is dropped to make room for a new one.
+   */
+  public static int MAX_SEGMENT_UPDATES = Config.DEFAULT_MAX_SEGMENT_UPDATES;
+  /**
+   * Number of time steps segment updates stay queued, older updates expire without being applied.
+   */
+  public static int SEGMENT_UPDATES_HORIZON = Config.DEFAULT_SEGMENT_UPDATES_HORIZON;
   /**
    * cell will keep a buffer of its last TIME_STEPS states
    */
@@ -31,6 +41,40 @@ public class Cell extends Composite<Column, DistalDendriteSegment>{
     return segmentUpdates;
   }
 
+  void queueSegmentUpdate(DistalDendriteSegment.Update update) {
+    if (segmentUpdates.size() >= MAX_SEGMENT_UPDATES) {
+      segmentUpdates.subList(0, segmentUpdates.size() - MAX_SEGMENT_UPDATES + 1).clear();
+    }
+    segmentUpdates.add(update);
+    getLayer().segmentUpdatesQueued(this, true);
+  }
+
+  /**
+   * Drop all queued segment updates, e.g. after they are applied
+   */
+  public void clearSegmentUpdates() {
+    segmentUpdates.clear();
+    getLayer().segmentUpdatesQueued(this, false);
+  }
+
+  /**
+   * Drop queued segment updates created before the step. Updates are queued in creation order,
+   * so expired updates are always at the head of the queue.
+   */
+  void expireSegmentUpdates(long oldestStep) {
+    int expired = 0;
+    while (expired < segmentUpdates.size() && segmentUpdates.get(expired).getCreatedStep() < oldestStep) {
+      expired++;
+    }
+    if (expired > 0) {
+      segmentUpdates.subList(0, expired).clear();
+      fireUpdatesChange();
+    }
+    if (segmentUpdates.isEmpty()) {
+      getLayer().segmentUpdatesQueued(this, false);
+    }
+  }
+
   public enum State {
     ACTIVE,
     LEARN
@@ -47,33 +91,100 @@ public class Cell extends Composite<Column, DistalDendriteSegment>{
 
   private final int cellIndex;
   /**
-   * Boolean vector of Cell's active state in time t-n, ..., t-1, t
+   * Index of the cell in the layer, addresses cell's states in the layer state history
    */
-  private final CellStateBuffer activeState = new CellStateBuffer();
+  private final int layerIndex;
   /**
+   * Active, learn and predict in step states in time t-n, ..., t-1, t are kept by the layer
+   * <p/>
    * learnState(c, i, t) A boolean indicating whether cell i in column c is
    * chosen as the cell to learn on.
    */
-  private final CellStateBuffer learnState = new CellStateBuffer();
+  private final CellStateHistory stateHistory;
+
 
   /**
-   * Boolean vector of Cell's predictive state in time t-n, ..., t-1, t
+   * Queued segment updates, confined to the thread processing the cell's column
    */
-  //private CellStateBuffer predictiveState = new CellStateBuffer();
-
-  private final PredictInStepBuffer predictedInStepState = new PredictInStepBuffer();
+  private final List<DistalDendriteSegment.Update> segmentUpdates = new ArrayList<DistalDendriteSegment.Update>();
 
+  /**
+   * Distal synapses of other cells segments that originate from this cell, in no particular order.
+   * Each synapse knows its position, so removal swaps the last synapse into its place.
+   */
+  private final List<Synapse.DistalSynapse> outgoingSynapses = new ArrayList<Synapse.DistalSynapse>();
 
-  private final List<DistalDendriteSegment.Update> segmentUpdates = new ArrayList<DistalDendriteSegment.Update>();
+  //random stream of the cell, reseeded every time step
+  private Random random;
+  private long randomStep = -1;
 
   public static void updateFromConfig(Config cellCfg) {
     AMOUNT_OF_SYNAPSES = cellCfg.getAmountOfSynapses();
     TIME_STEPS = cellCfg.getTimeSteps();
+    MAX_SEGMENTS = cellCfg.getMaxSegments();
+    MAX_SEGMENT_UPDATES = cellCfg.getMaxSegmentUpdates();
+    SEGMENT_UPDATES_HORIZON = cellCfg.getSegmentUpdatesHorizon();
   }
 
   public Cell(Column belongsToColumn, int cellIndex) {
     this.owner = belongsToColumn;
     this.cellIndex = cellIndex;
+    Layer layer = belongsToColumn.getOwner();
+    this.layerIndex = belongsToColumn.getIndex() * layer.getCellsInColumn() + cellIndex;
+    this.stateHistory = layer.getCellStateHistory();
+  }
+
+  public int getLayerIndex() {
+    return layerIndex;
+  }
+
+  Layer getLayer() {
+    return owner.getOwner();
+  }
+
+  public List<Synapse.DistalSynapse> getOutgoingSynapses() {
+    return Collections.unmodifiableList(outgoingSynapses);
+  }
+
+  /*Segments of cells in other columns add synapses concurrently while learning*/
+  void addOutgoingSynapse(Synapse.DistalSynapse synapse) {
+    synchronized (outgoingSynapses) {
+      synapse.setOutgoingIndex(outgoingSynapses.size());
+      outgoingSynapses.add(synapse);
+    }
+  }
+
+  void removeOutgoingSynapse(Synapse.DistalSynapse synapse) {
+    synchronized (outgoingSynapses) {
+      int inx = synapse.getOutgoingIndex();
+      if (inx < 0 || inx >= outgoingSynapses.size() || outgoingSynapses.get(inx) != synapse) {
+        return;
+      }
+      Synapse.DistalSynapse last = outgoingSynapses.remove(outgoingSynapses.size() - 1);
+      if (last != synapse) {
+        outgoingSynapses.set(inx, last);
+        last.setOutgoingIndex(inx);
+      }
+      synapse.setOutgoingIndex(-1);
+    }
+  }
+
+  /**
+   * Random stream of the cell in current time step, split from the model seed by cell index and step.
+   * Draws don't depend on other cells, so runs are reproducible whatever order cells are processed in.
+   */
+  public Random getRandom() {
+    long step = stateHistory.getStep();
+    if (random == null || randomStep != step) {
+      long seed = MathUtils.splitSeed(getLayer().getSeed(), layerIndex, step);
+      if (random == null) {
+        random = new Random(seed);
+      } else {
+        random.setSeed(seed);
+      }
+      randomStep = step;
+    }
+    return random;
   }
 
   public List<DistalDendriteSegment> getSegments(){
@@ -87,7 +198,7 @@ public class Cell extends Composite<Column, DistalDendriteSegment>{
     if(!this.getActiveState(Cell.NOW)){
       LOG.warn("Setting non active cell as learning:" + this);
     }
-    this.learnState.setState();
+    stateHistory.setLearnState(layerIndex);
   }
 
   /**
@@ -96,14 +207,14 @@ public class Cell extends Composite<Column, DistalDendriteSegment>{
    * @param time
    */
   public boolean getLearnState(int time) {
-    return this.learnState.get(time);
+    return stateHistory.getLearnState(time, layerIndex);
   }
 
   /**
    * Set active state
    */
   public void setActiveState() {
-    this.activeState.setState();
+    stateHistory.setActiveState(layerIndex);
      /*Added by Kirill to track speed of permanence changes for active cells*/
     for (DistalDendriteSegment segment : this.elementList) {
       for (Synapse.DistalSynapse distalSynapse : segment.getElementsList()) {
@@ -131,7 +242,7 @@ public class Cell extends Composite<Column, DistalDendriteSegment>{
    * @param time
    */
   public boolean getActiveState(int time) {
-    return this.activeState.get(time);
+    return stateHistory.getActiveState(time, layerIndex);
   }
 
   /**
@@ -161,20 +272,42 @@ public class Cell extends Composite<Column, DistalDendriteSegment>{
   }
 
   public void setPredictInStepState(int step) {
-    predictedInStepState.setPredictInStep(step);
+    stateHistory.setPredictInStepState(layerIndex, step);
   }
 
   public int getPredictInStepState(int time) {
-    return predictedInStepState.get(time);
+    return stateHistory.getPredictInStepState(time, layerIndex);
   }
 
 
 
   public boolean deleteSegment(DistalDendriteSegment toDelete) {
-    return elementList.remove(toDelete);
+    boolean result = elementList.remove(toDelete);
+    if (result) {
+      toDelete.detach();
+    }
+    return result;
+  }
+
+  /**
+   * Delete least recently active segments until there is room for one more segment
+   */
+  public void makeRoomForSegment() {
+    while (!elementList.isEmpty() && elementList.size() >= MAX_SEGMENTS) {
+      DistalDendriteSegment leastRecentlyActive = elementList.get(0);
+      for (DistalDendriteSegment segment : elementList) {
+        if (segment.getLastActiveStep() < leastRecentlyActive.getLastActiveStep()) {
+          leastRecentlyActive = segment;
+        }
+      }
+      deleteSegment(leastRecentlyActive);
+    }
   }
 
   public void deleteAllSegment() {
+    for (DistalDendriteSegment segment : elementList) {
+      segment.detach();
+    }
     elementList.clear();
   }
 
@@ -201,24 +334,31 @@ public class Cell extends Composite<Column, DistalDendriteSegment>{
 
 
   /*Custom events implementation*/
-  private final Collection<SegmentsChangeEventListener> _segmentsChangeEventListeners = new HashSet<SegmentsChangeEventListener>();
+  /*Copy on write set lets columns be processed in parallel, events are fired by the thread processing the cell*/
+  private final Collection<SegmentsChangeEventListener> _segmentsChangeEventListeners = new CopyOnWriteArraySet<SegmentsChangeEventListener>();
 
-  public synchronized void addSegmentsChangeListener(SegmentsChangeEventListener listener) {
+  public void addSegmentsChangeListener(SegmentsChangeEventListener listener) {
     _segmentsChangeEventListeners.add(listener);
   }
 
-  public synchronized void removeSegmentsChangeListener(SegmentsChangeEventListener listener) {
+  public void removeSegmentsChangeListener(SegmentsChangeEventListener listener) {
     _segmentsChangeEventListeners.remove(listener);
   }
 
-  public synchronized void fireUpdatesChange() {
+  public void fireUpdatesChange() {
+    if (_segmentsChangeEventListeners.isEmpty()) {
+      return;
+    }
     SegmentsChangeEvent event = new SegmentsChangeEvent(this);
     for (SegmentsChangeEventListener segmentsChangeEventListener : _segmentsChangeEventListeners) {
       segmentsChangeEventListener.onUpdatesChange(event);
     }
   }
 
-  public synchronized void fireSegmentsChange() {
+  public void fireSegmentsChange() {
+    if (_segmentsChangeEventListeners.isEmpty()) {
+      return;
+    }
     SegmentsChangeEvent event = new SegmentsChangeEvent(this);
     for (SegmentsChangeEventListener segmentsChangeEventListener : _segmentsChangeEventListeners) {
       segmentsChangeEventListener.onSegmentsChange(event);
@@ -241,56 +381,32 @@ public class Cell extends Composite<Column, DistalDendriteSegment>{
   }
 
 
-  /*
- *Advances this cell to the next time step.
- *The current state of this cell (active, learning, predicting) will be set as the
- *previous state and the current state will be reset to no cell activity by
- *default until it can be determined.
- *Call this function before each temporal cycle
-  */
-  public void nextTimeStep() {
-    this.activeState.add(Cell.NOW, false);
-    this.predictedInStepState.add(Cell.NOW, NOT_IN_STEP_PREDICTION);
-    this.learnState.add(Cell.NOW, false);
-  }
-
-  private static class CellStateBuffer extends CircularArrayList<Boolean> {
-    public CellStateBuffer() {
-      super(TIME_STEPS);
-      for (int i = 0; i < TIME_STEPS; i++) {
-        this.add(false);
-      }
-    }
+  public static class Config {
+    public static final int DEFAULT_MAX_SEGMENTS = 128;
+    public static final int DEFAULT_MAX_SEGMENT_UPDATES = 64;
+    public static final int DEFAULT_SEGMENT_UPDATES_HORIZON = 32;
 
-    /**
-     * Set the current state(time NOW)
-     *
-     */
-    void setState() {
-      this.set(NOW, true);
-    }
-  }
+    private final int amountOfSynapses;
+    private final int timeSteps;
+    private final int maxSegments;
+    private final int maxSegmentUpdates;
+    private final int segmentUpdatesHorizon;
 
-  private static class PredictInStepBuffer extends CircularArrayList<Integer> {
-    public PredictInStepBuffer() {
-      super(TIME_STEPS);
-      for (int i = 0; i < TIME_STEPS; i++) {
-        this.add(NOT_IN_STEP_PREDICTION);
-      }
+    public Config(int amountOfSynapses, int timeSteps) {
+      this(amountOfSynapses, timeSteps, DEFAULT_MAX_SEGMENTS);
     }
 
-    void setPredictInStep(int step) {
-      this.set(NOW, step);
+    public Config(int amountOfSynapses, int timeSteps, int maxSegments) {
+      this(amountOfSynapses, timeSteps, maxSegments, DEFAULT_MAX_SEGMENT_UPDATES, DEFAULT_SEGMENT_UPDATES_HORIZON);
     }
-  }
 
-  public static class Config {
-    private final int amountOfSynapses;
-    private final int timeSteps;
-
-    public Config(int amountOfSynapses, int timeSteps) {
+    public Config(int amountOfSynapses, int timeSteps, int maxSegments, int maxSegmentUpdates,
+                  int segmentUpdatesHorizon) {
       this.amountOfSynapses = amountOfSynapses;
       this.timeSteps = timeSteps;
+      this.maxSegments = maxSegments;
+      this.maxSegmentUpdates = maxSegmentUpdates;
+      this.segmentUpdatesHorizon = segmentUpdatesHorizon;
     }
 
 
@@ -301,6 +417,18 @@ public class Cell extends Composite<Column, DistalDendriteSegment>{
     public int getTimeSteps() {
       return timeSteps;
     }
+
+    public int getMaxSegments() {
+      return maxSegments;
+    }
+
+    public int getMaxSegmentUpdates() {
+      return maxSegmentUpdates;
+    }
+
+    public int getSegmentUpdatesHorizon() {
+      return segmentUpdatesHorizon;
+    }
   }
 
 }
\ No newline at end of file
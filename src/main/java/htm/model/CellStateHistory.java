@@ -0,0 +1,161 @@
+package htm.model;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Layer wide history of cells states for the last Cell.TIME_STEPS steps.
+ * Active and learn states are kept as one bitset per time step, predict in step state
+ * as one short per cell per time step. Cells are addressed by their index in the layer(see Cell.getLayerIndex()).
+ * Time steps are rotated with ring pointer, so advancing time only clears the states of new NOW step.
+ * <p/>
+ * Bitset words are shared by 64 neighbor cells, so concurrent writers should own whole words.
+ */
+public class CellStateHistory {
+  private final int timeSteps;
+  private final long[][] activeStates;
+  private final long[][] learnStates;
+  private final short[][] predictInStepStates;
+  //slot of the Cell.NOW step, (t - n) step is n slots after
+  private int now = 0;
+  //number of time steps passed
+  private long step = 0;
+  //changes on each step and on each active/learn state change, cells of different columns may change concurrently
+  private final AtomicLong version = new AtomicLong();
+
+  public CellStateHistory(int cellsNumber, int timeSteps) {
+    this.timeSteps = timeSteps;
+    int words = (cellsNumber + 63) >>> 6;
+    activeStates = new long[timeSteps][words];
+    learnStates = new long[timeSteps][words];
+    predictInStepStates = new short[timeSteps][cellsNumber];
+    for (short[] predictInStepState : predictInStepStates) {
+      Arrays.fill(predictInStepState, (short)Cell.NOT_IN_STEP_PREDICTION);
+    }
+  }
+
+  private int slotOf(int time) {
+    if (time < 0 || time >= timeSteps) {
+      throw new IndexOutOfBoundsException("time: " + time + " can't exceed history buffer limit: " + timeSteps);
+    }
+    int slot = now + time;
+    return slot >= timeSteps ? slot - timeSteps : slot;
+  }
+
+  private static boolean get(long[] states, int cellInx) {
+    return (states[cellInx >>> 6] & (1L << cellInx)) != 0;
+  }
+
+  private static void set(long[] states, int cellInx) {
+    states[cellInx >>> 6] |= 1L << cellInx;
+  }
+
+  public boolean getActiveState(int time, int cellInx) {
+    return get(activeStates[slotOf(time)], cellInx);
+  }
+
+  /**
+   * Set cell active in current time Cell.NOW
+   */
+  public void setActiveState(int cellInx) {
+    set(activeStates[now], cellInx);
+    version.incrementAndGet();
+  }
+
+  public boolean getLearnState(int time, int cellInx) {
+    return get(learnStates[slotOf(time)], cellInx);
+  }
+
+  /**
+   * Set cell learning in current time Cell.NOW
+   */
+  public void setLearnState(int cellInx) {
+    set(learnStates[now], cellInx);
+    version.incrementAndGet();
+  }
+
+  /**
+   * Index of the next cell, starting from fromInx inclusive, that is learning at time
+   *
+   * @return cell index in the layer or -1 if there is no such cell
+   */
+  public int nextLearnCell(int time, int fromInx) {
+    long[] learn = learnStates[slotOf(time)];
+    int wordInx = fromInx >>> 6;
+    if (wordInx >= learn.length) {
+      return -1;
+    }
+    long word = learn[wordInx] & (-1L << fromInx);
+    while (true) {
+      if (word != 0) {
+        return (wordInx << 6) + Long.numberOfTrailingZeros(word);
+      }
+      if (++wordInx == learn.length) {
+        return -1;
+      }
+      word = learn[wordInx];
+    }
+  }
+
+  /**
+   * Index of the next cell, starting from fromInx inclusive, that is active or learning at time
+   *
+   * @return cell index in the layer or -1 if there is no such cell
+   */
+  public int nextActiveOrLearnCell(int time, int fromInx) {
+    int slot = slotOf(time);
+    long[] active = activeStates[slot], learn = learnStates[slot];
+    int wordInx = fromInx >>> 6;
+    if (wordInx >= active.length) {
+      return -1;
+    }
+    long word = (active[wordInx] | learn[wordInx]) & (-1L << fromInx);
+    while (true) {
+      if (word != 0) {
+        return (wordInx << 6) + Long.numberOfTrailingZeros(word);
+      }
+      if (++wordInx == active.length) {
+        return -1;
+      }
+      word = active[wordInx] | learn[wordInx];
+    }
+  }
+
+  /**
+   * Number of time steps passed, states in time before Cell.NOW don't change within the step
+   */
+  public long getStep() {
+    return step;
+  }
+
+  /**
+   * Version of cells active and learn states, it changes with every state change and time step
+   */
+  public long getVersion() {
+    return version.get();
+  }
+
+  public int getPredictInStepState(int time, int cellInx) {
+    return predictInStepStates[slotOf(time)][cellInx];
+  }
+
+  /**
+   * Set cell predicted in step in current time Cell.NOW
+   */
+  public void setPredictInStepState(int cellInx, int step) {
+    predictInStepStates[now][cellInx] = (short)step;
+  }
+
+  /**
+   * Advances all cells to the next time step. Current states become previous ones
+   * and the oldest step slot is reused as NOW with no activity.
+   */
+  public void nextTimeStep() {
+    now = now == 0 ? timeSteps - 1 : now - 1;
+    Arrays.fill(activeStates[now], 0);
+    Arrays.fill(learnStates[now], 0);
+    Arrays.fill(predictInStepStates[now], (short)Cell.NOT_IN_STEP_PREDICTION);
+    step++;
+    version.incrementAndGet();
+  }
+}
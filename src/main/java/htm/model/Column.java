@@ -3,8 +3,6 @@ package htm.model;
 import htm.model.space.BaseSpace;
 import htm.model.space.Element;
 import htm.model.space.InputSpace;
-import htm.utils.CircularArrayList;
-import htm.utils.CollectionUtils;
 import htm.utils.MathUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -17,29 +15,6 @@ public class Column extends Element<Layer, Cell> {
   private static final Log LOG = LogFactory.getLog(Column.class);
   public static int AMOUNT_OF_PROXIMAL_SYNAPSES = 30;
 
-  private static final CollectionUtils.Predicate<Synapse.ProximalSynapse> ACTIVE_CONNECTED_PROXIMAL_SYNAPSES_PREDICATE = new CollectionUtils.Predicate<Synapse.ProximalSynapse>() {
-    @Override
-    public boolean apply(Synapse.ProximalSynapse synapse) {
-      return synapse.isConnected(
-              Synapse.ProximalSynapse.CONNECTED_PERMANENCE) && synapse.getConnectedSensoryInput().getValue();
-    }
-  };
-
-  private static final CollectionUtils.Predicate<Synapse.ProximalSynapse> CONNECTED_PROXIMAL_SYNAPSES_PREDICATE = new CollectionUtils.Predicate<Synapse.ProximalSynapse>() {
-    @Override
-    public boolean apply(Synapse.ProximalSynapse synapse) {
-      return synapse.isConnected(Synapse.ProximalSynapse.CONNECTED_PERMANENCE);
-    }
-  };
-
-  private static final Comparator<Column> ACTIVE_DUTY_CYCLE_COMPARATOR = new Comparator<Column>() {
-    @Override public int compare(Column column1, Column column2) {
-      Double activeDutyCycle1 = column1.getActiveDutyCycle(), activeDutyCycle2 = column2.getActiveDutyCycle();
-      return activeDutyCycle2.compareTo(activeDutyCycle1);
-    }
-  };
-
-
   @Override
   public boolean addAll(List<Cell> all) {
     throw new NoSuchElementException("Not supported for Column, fixed number of cells");
@@ -64,7 +39,18 @@ public class Column extends Element<Layer, Cell> {
   }
 
 
-  private final List<Synapse.ProximalSynapse> proximalSynapses = new ArrayList<Synapse.ProximalSynapse>();
+  private int proximalSynapsesCount = 0;
+  //views on the store slots, created for the visualizer on demand
+  private volatile List<Synapse.ProximalSynapse> proximalSynapses;
+  //permanences, inputs and distances of the proximal synapses
+  private final ProximalSynapseStore proximalSynapseStore;
+  //connected proximal synapses by slot, kept when synapse permanence crosses CONNECTED_PERMANENCE
+  private final long[] connectedMask;
+  //connected mask computed by the store learning loops, compared with connectedMask afterwards
+  private final long[] learnedConnectedMask;
+  private int connectedCount = 0;
+  //distance of the furthest connected proximal synapse, connected receptive field size of the column
+  private double maxConnectedDistance = 0;
   private double boost = 1.0;
 
   /**
@@ -72,26 +58,23 @@ public class Column extends Element<Layer, Cell> {
    * overlap(c) The spatial pooler overlap of column c with a particular
    * input pattern.
    */
-  private final ColumnBufferedState<Double> overlap; //Need to create it later in constructor to access Column instance
+  private final OverlapBufferedState overlap; //Need to create it later in constructor to access Column instance
 
-  private final ColumnBufferedState<Boolean> active = new ColumnBufferedState<Boolean>(false) {
-    @Override protected boolean positiveCondition(Boolean active) {
-      return active;
-    }
-  };
-
-  private final Map<Double, List<Column>> neighbors_cache = new HashMap<Double, List<Column>>();
+  private final ActiveBufferedState active = new ActiveBufferedState();
 
   public Column(final Layer layer, int columnIndex, Point columnGridPosition) {
     super(layer, columnGridPosition, columnIndex);
+    this.proximalSynapseStore = layer.getProximalSynapseStore();
+    this.connectedMask = new long[(proximalSynapseStore.getSynapsesPerColumn() + 63) >>> 6];
+    this.learnedConnectedMask = new long[connectedMask.length];
     for (int i = 0; i < layer.getCellsInColumn(); i++) {
       this.elementList.add(new Cell(this, i));
     }
 
 
-    overlap = new ColumnBufferedState<Double>(0.0) {
+    overlap = new OverlapBufferedState(0.0) {
 
-      @Override protected boolean positiveCondition(Double overlap) {
+      @Override protected boolean positiveCondition(double overlap) {
          //TODO not sure if Column should directly reference algorithmic classes: Temporal/Spatial Pooler,
          //TODO but having TP properties in column as static prop even worse
         if(layer.getSpatialPooler() == null){
@@ -140,11 +123,12 @@ public class Column extends Element<Layer, Cell> {
       throw new IllegalArgumentException("Amount of potential synapses:" + AMOUNT_OF_PROXIMAL_SYNAPSES
                                          + " is bigger than number of inputs:" + potentialProximalInputs.size() + ", increase input radius");
     }
-    Collections.shuffle(potentialProximalInputs);
-    // Tie the random seed to this Column's position for reproducibility
+    // Tie the random stream to the model seed and this Column's index for reproducibility,
+    // step -1 keeps it apart from cells streams(see Cell.getRandom())
+    Random randomGenerator = new Random(MathUtils.splitSeed(getOwner().getSeed(), getIndex(), -1));
+    Collections.shuffle(potentialProximalInputs, randomGenerator);
     inputRadius = inputRadius < 1 ? Math.sqrt(Math.pow(sensoryInput.getDimension().height, 2) + Math.pow(
             sensoryInput.getDimension().width, 2)) : inputRadius;
-    Random randomGenerator = new Random(this.getLocationSeed());
     for (int j = 0; j < AMOUNT_OF_PROXIMAL_SYNAPSES; j++) {
       InputSpace.Input input = potentialProximalInputs.get(j);
       //Permanence value is based on Gaussian distribution around the ConnectedPerm value, biased by distance from this Column.
@@ -157,8 +141,14 @@ public class Column extends Element<Layer, Cell> {
               radiusBiasPermanence = initPermanence * radiusBiasScale;
       LOG.debug("PERMANENCE INITIALIZATION: init permanence" + initPermanence
                 + " ,distanceToInputSrc:" + distanceToInputSrc + ", distanceToInputColumn:" + distanceToInputColumn + ", radiusBiasScale:" + radiusBiasScale + " , radiusBiasPermanence:" + radiusBiasPermanence);
-      proximalSynapses.add(new Synapse.ProximalSynapse(radiusBiasPermanence, input, this));
+      int slot = proximalSynapsesCount++;
+      proximalSynapseStore.setPermanence(getIndex(), slot, radiusBiasPermanence);
+      proximalSynapseStore.setInputIndex(getIndex(), slot, input.getIndex());
+      proximalSynapseStore.setDistanceToColumn(getIndex(), slot, distanceToInputColumn);
+      updateSynapseConnected(slot);
+      sensoryInput.addProximalSynapse(input.getIndex(), proximalSynapseStore.getStoreIndex(getIndex(), slot));
     }
+    proximalSynapses = null;
   }
 
   /**
@@ -169,11 +159,28 @@ public class Column extends Element<Layer, Cell> {
    * @param increaseBy
    */
   public void increasePermanence(double increaseBy) {
-    //List<Synapse.ProximalSynapse> proximalSynapses = this.getPotentialSynapses();
-    for (Synapse.ProximalSynapse proximalSynapse : proximalSynapses) {
-      proximalSynapse.setPermanence(proximalSynapse.getPermanence() + increaseBy);
-    }
+    proximalSynapseStore.increasePermanences(getIndex(), proximalSynapsesCount, increaseBy,
+                                             Synapse.ProximalSynapse.CONNECTED_PERMANENCE, learnedConnectedMask);
+    updateSynapsesConnected(learnedConnectedMask);
+  }
 
+  /**
+   * WP
+   * For winning columns, if a synapse is active, its permanence value is incremented,
+   * otherwise it is decremented. Permanence values are constrained to be between 0 and 1.
+   */
+  public void adaptPermanences(double permanenceIncrease, double permanenceDecrease) {
+    adaptPermanences(this.getOwner().getInputSpace().getInputActivity(null), permanenceIncrease, permanenceDecrease);
+  }
+
+  /**
+   * @param inputActivity 1 for active and 0 for inactive inputs by input index, see InputSpace.getInputActivity
+   */
+  public void adaptPermanences(double[] inputActivity, double permanenceIncrease, double permanenceDecrease) {
+    proximalSynapseStore.adaptPermanences(getIndex(), proximalSynapsesCount, inputActivity, permanenceIncrease,
+                                          permanenceDecrease, Synapse.ProximalSynapse.CONNECTED_PERMANENCE,
+                                          learnedConnectedMask);
+    updateSynapsesConnected(learnedConnectedMask);
   }
 
 
@@ -236,14 +243,23 @@ public class Column extends Element<Layer, Cell> {
   /**
    * maxDutyCycle(cols)
    * Returns the maximum active duty cycle of the columns in the given list of columns.
+   * <p/>
+   * Visits every neighbor, so cost is O(radius^2) per column and O(columns * radius^2) for all
+   * columns. Layer.getNeighborsMaxDutyCycles takes it for all columns at once in O(columns * radius).
+   * Neighbor indexes go to the layer buffer of the calling thread, nothing is allocated.
    *
    * @param inhibitionRadius
    * @return
    */
   public double getMaxDutyCycle(double inhibitionRadius) {
-    List<Column> neighbors = this.getNeighbors(inhibitionRadius);
-    Collections.sort(neighbors, ACTIVE_DUTY_CYCLE_COMPARATOR);
-    return neighbors.get(0).getActiveDutyCycle();
+    Layer layer = this.getOwner();
+    int[] neighborIndexes = layer.getNeighborIndexesBuffer(inhibitionRadius);
+    int count = layer.getNeighborIndexes(this, inhibitionRadius, neighborIndexes);
+    double result = layer.getElementByIndex(neighborIndexes[0]).getActiveDutyCycle();
+    for (int i = 1; i < count; i++) {
+      result = Math.max(result, layer.getElementByIndex(neighborIndexes[i]).getActiveDutyCycle());
+    }
+    return result;
   }
 
   /*
@@ -280,25 +296,39 @@ public class Column extends Element<Layer, Cell> {
   * column c.
   */
   public List<Column> getNeighbors(Double inhibitionRadius) {
-    //to limit cache to 0.1 fraction
-    Double roundedInhibitionRadius = MathUtils.round(inhibitionRadius, 1);
-    List<Column> result;
-    result = neighbors_cache.get(roundedInhibitionRadius);
-    if (result == null) {
-      result = this.getOwner().getAllWithinRadius(this.getPosition(), roundedInhibitionRadius);
-      //remove itself
-      result.remove(result.indexOf(this));
-      if (result.size() == 0) {
-        throw new IllegalArgumentException(
-                "No neighbors found within inhibitionRadius of: " + inhibitionRadius + ". Please increase receptiveFieldSize by increasing inputRadius for input Space.");
-      }
-      neighbors_cache.put(roundedInhibitionRadius, result);
+    Layer layer = this.getOwner();
+    int[] neighborIndexes = new int[layer.getMaxNeighborsCount(inhibitionRadius)];
+    int count = layer.getNeighborIndexes(this, inhibitionRadius, neighborIndexes);
+    List<Column> result = new ArrayList<Column>(count);
+    for (int i = 0; i < count; i++) {
+      result.add(layer.getElementByIndex(neighborIndexes[i]));
     }
     return result;
   }
 
   public List<Synapse.ProximalSynapse> getActiveConnectedSynapses() {
-    return CollectionUtils.filter(proximalSynapses, ACTIVE_CONNECTED_PROXIMAL_SYNAPSES_PREDICATE);
+    List<Synapse.ProximalSynapse> synapses = getPotentialSynapses();
+    List<Synapse.ProximalSynapse> result = new ArrayList<Synapse.ProximalSynapse>();
+    for (int slot = nextConnectedSynapse(0); slot != -1; slot = nextConnectedSynapse(slot + 1)) {
+      if (isSynapseInputActive(slot)) {
+        result.add(synapses.get(slot));
+      }
+    }
+    return result;
+  }
+
+  public int getActiveConnectedSynapsesCount() {
+    int result = 0;
+    for (int slot = nextConnectedSynapse(0); slot != -1; slot = nextConnectedSynapse(slot + 1)) {
+      if (isSynapseInputActive(slot)) {
+        result++;
+      }
+    }
+    return result;
+  }
+
+  private boolean isSynapseInputActive(int slot) {
+    return this.getOwner().getInputSpace().getInputValue(proximalSynapseStore.getInputIndex(getIndex(), slot));
   }
 
   /**
@@ -310,7 +340,107 @@ public class Column extends Element<Layer, Cell> {
    * @return
    */
   public List<Synapse.ProximalSynapse> getConnectedSynapses() {
-    return CollectionUtils.filter(proximalSynapses, CONNECTED_PROXIMAL_SYNAPSES_PREDICATE);
+    List<Synapse.ProximalSynapse> synapses = getPotentialSynapses();
+    List<Synapse.ProximalSynapse> result = new ArrayList<Synapse.ProximalSynapse>(connectedCount);
+    for (int slot = nextConnectedSynapse(0); slot != -1; slot = nextConnectedSynapse(slot + 1)) {
+      result.add(synapses.get(slot));
+    }
+    return result;
+  }
+
+  public int getConnectedSynapsesCount() {
+    return connectedCount;
+  }
+
+  /**
+   * Slot of the next connected synapse in potential synapses, starting from fromSlot inclusive
+   *
+   * @return synapse slot or -1 if there is no such synapse
+   */
+  public int nextConnectedSynapse(int fromSlot) {
+    int wordInx = fromSlot >>> 6;
+    if (wordInx >= connectedMask.length) {
+      return -1;
+    }
+    long word = connectedMask[wordInx] & (-1L << fromSlot);
+    while (true) {
+      if (word != 0) {
+        return (wordInx << 6) + Long.numberOfTrailingZeros(word);
+      }
+      if (++wordInx == connectedMask.length) {
+        return -1;
+      }
+      word = connectedMask[wordInx];
+    }
+  }
+
+  public boolean isSynapseConnected(int slot) {
+    return (connectedMask[slot >>> 6] & (1L << slot)) != 0;
+  }
+
+  /**
+   * Keep connected state of the synapse in line with its permanence, call it after the permanence change
+   */
+  void updateSynapseConnected(int slot) {
+    boolean connected = proximalSynapseStore.getPermanence(getIndex(),
+                                                           slot) >= Synapse.ProximalSynapse.CONNECTED_PERMANENCE;
+    if (connected != isSynapseConnected(slot)) {
+      synapseConnectedChanged(slot, connected);
+      this.getOwner().getInputSpace().setProximalConnectionsChanged(true);
+    }
+  }
+
+  /**
+   * Apply connected states computed by the store learning loops, only synapses that changed the state are visited
+   */
+  private void updateSynapsesConnected(long[] newConnectedMask) {
+    boolean changed = false;
+    for (int wordInx = 0; wordInx < connectedMask.length; wordInx++) {
+      long changedWord = connectedMask[wordInx] ^ newConnectedMask[wordInx];
+      changed |= changedWord != 0;
+      while (changedWord != 0) {
+        int slot = (wordInx << 6) + Long.numberOfTrailingZeros(changedWord);
+        synapseConnectedChanged(slot, (newConnectedMask[wordInx] & (1L << slot)) != 0);
+        changedWord &= changedWord - 1;
+      }
+    }
+    if (changed) {
+      this.getOwner().getInputSpace().setProximalConnectionsChanged(true);
+    }
+  }
+
+  private void synapseConnectedChanged(int slot, boolean connected) {
+    int wordInx = slot >>> 6;
+    double distance = proximalSynapseStore.getDistanceToColumn(getIndex(), slot);
+    if (connected) {
+      connectedMask[wordInx] |= 1L << slot;
+      connectedCount++;
+      if (distance > maxConnectedDistance) {
+        maxConnectedDistance = distance;
+        this.getOwner().receptiveFieldSizeChanged();
+      }
+    } else {
+      connectedMask[wordInx] &= ~(1L << slot);
+      connectedCount--;
+      if (distance >= maxConnectedDistance) {
+        double newMaxConnectedDistance = 0;
+        for (int i = nextConnectedSynapse(0); i != -1; i = nextConnectedSynapse(i + 1)) {
+          newMaxConnectedDistance = Math.max(newMaxConnectedDistance,
+                                             proximalSynapseStore.getDistanceToColumn(getIndex(), i));
+        }
+        if (newMaxConnectedDistance != maxConnectedDistance) {
+          maxConnectedDistance = newMaxConnectedDistance;
+          this.getOwner().receptiveFieldSizeChanged();
+        }
+      }
+    }
+  }
+
+  /**
+   * Distance of the furthest connected proximal synapse. This is considered the size of the column receptive field.
+   */
+  public double getMaxConnectedDistance() {
+    return maxConnectedDistance;
   }
 
   /**
@@ -321,49 +451,147 @@ public class Column extends Element<Layer, Cell> {
    * @return
    */
   public List<Synapse.ProximalSynapse> getPotentialSynapses() {
-    return Collections.unmodifiableList(proximalSynapses);
+    List<Synapse.ProximalSynapse> result = proximalSynapses;
+    if (result == null) {
+      List<Synapse.ProximalSynapse> views = new ArrayList<Synapse.ProximalSynapse>(proximalSynapsesCount);
+      for (int slot = 0; slot < proximalSynapsesCount; slot++) {
+        views.add(new Synapse.ProximalSynapse(this, slot));
+      }
+      result = Collections.unmodifiableList(views);
+      proximalSynapses = result;
+    }
+    return result;
   }
 
-
-  public void nextTimeStep() {
-    for (Cell cell : this.getElementsList()) {
-      cell.nextTimeStep();
-    }
+  public int getPotentialSynapsesCount() {
+    return proximalSynapsesCount;
   }
 
 
-  private static abstract class ColumnBufferedState<E> extends CircularArrayList<E> {
-    public ColumnBufferedState(E defValue) {
-      super(COLUMN_CYCLE_BUFFER_SIZE);
-      addState(defValue);
+  /**
+   * Fixed size history of column states kept in a primitive ring buffer.
+   * The latest state is at the head slot, older states follow it, the oldest one
+   * is overwritten once the buffer is full. Amount of states matching positive condition
+   * is tracked on every insert, so sliding average is O(1) and doesn't allocate.
+   */
+  private static abstract class ColumnBufferedState {
+    private int head = 0;
+    private int size = 1;
+    private int positiveCount = 0;
+    //Positive condition of the default state can't be evaluated on construction(e.g. no Spatial Pooler yet)
+    private boolean positiveCounted = false;
+
+    protected abstract boolean isPositive(int slot);
+
+    private void countPositive() {
+      if (!positiveCounted) {
+        positiveCount = 0;
+        for (int i = 0; i < size; i++) {
+          if (isPositive(slotOf(i))) {
+            positiveCount++;
+          }
+        }
+        positiveCounted = true;
+      }
     }
 
     /**
-     * Set the column state
+     * Move head to the slot for the new state, evict the oldest state if full
      *
-     * @param value
+     * @return slot for the new state
      */
-    void addState(E value) {
-      this.add(0, value);
+    protected int nextSlot() {
+      countPositive();
+      int slot = head == 0 ? COLUMN_CYCLE_BUFFER_SIZE - 1 : head - 1;
+      if (size == COLUMN_CYCLE_BUFFER_SIZE) {
+        if (isPositive(slot)) {
+          positiveCount--;
+        }
+      } else {
+        size++;
+      }
+      head = slot;
+      return slot;
     }
 
-    public E getLast() {
-      return this.get(0);
+    /**
+     * Account the state just stored in the head slot
+     */
+    protected void stateAdded() {
+      if (isPositive(head)) {
+        positiveCount++;
+      }
+    }
+
+    protected int slotOf(int time) {
+      if (time < 0 || time >= size) {
+        throw new IndexOutOfBoundsException("time: " + time + ", size: " + size);
+      }
+      int slot = head + time;
+      return slot >= COLUMN_CYCLE_BUFFER_SIZE ? slot - COLUMN_CYCLE_BUFFER_SIZE : slot;
+    }
+
+    protected int getHead() {
+      return head;
+    }
+
+    public int size() {
+      return size;
     }
 
     public double getSlidingAverage() {
-      double result;
-      int length = this.size(), activeCount = 0;
-      for (int i = 0; i < length; i++) {
-        if (positiveCondition(get(i))) {
-          activeCount++;
-        }
+      countPositive();
+      return 1.0 * positiveCount / size;
+    }
+  }
+
+  private static abstract class OverlapBufferedState extends ColumnBufferedState {
+    private final double[] states = new double[COLUMN_CYCLE_BUFFER_SIZE];
+
+    public OverlapBufferedState(double defValue) {
+      states[getHead()] = defValue;
+    }
+
+    void addState(double value) {
+      states[nextSlot()] = value;
+      stateAdded();
+    }
+
+    public double getLast() {
+      return states[getHead()];
+    }
+
+    @Override protected boolean isPositive(int slot) {
+      return positiveCondition(states[slot]);
+    }
+
+    protected abstract boolean positiveCondition(double state);
+  }
+
+  private static class ActiveBufferedState extends ColumnBufferedState {
+    private final long[] states = new long[(COLUMN_CYCLE_BUFFER_SIZE + 63) >>> 6];
+
+    void addState(boolean value) {
+      int slot = nextSlot();
+      if (value) {
+        states[slot >>> 6] |= 1L << slot;
+      } else {
+        states[slot >>> 6] &= ~(1L << slot);
       }
-      result = 1.0 * activeCount / length;
-      return result;
+      stateAdded();
+    }
+
+    public boolean get(int time) {
+      return isPositive(slotOf(time));
     }
 
-    protected abstract boolean positiveCondition(E state);
+    public boolean getLast() {
+      return isPositive(getHead());
+    }
+
+    @Override protected boolean isPositive(int slot) {
+      return (states[slot >>> 6] & (1L << slot)) != 0;
+    }
   }
 
   public static class Config {
@@ -10,24 +10,185 @@ package htm.model;
 
 import htm.model.fractal.Composite;
 import htm.utils.CollectionUtils;
+import htm.utils.IntObjectMap;
+import htm.utils.IntSet;
 
-import java.util.List;
+import java.util.*;
 
 public class DistalDendriteSegment extends Composite<Cell, Synapse.DistalSynapse> {
+  //Kinds of memoized activity: connected with active cell, connected with learning cell, with active and learning cell
+  private static final int CONNECTED_ACTIVE = 0;
+  private static final int CONNECTED_LEARN = 1;
+  private static final int ACTIVE_LEARN = 2;
+  private static final int ACTIVITY_KINDS = 3;
+  private static final int NOT_COUNTED = -1;
 
   protected final DistalDendriteSegment predictedBy;
 
+  //Segment deleted from its cell
+  private boolean detached = false;
+  //Synapses by presynaptic cell layer index, there is at most one synapse per cell
+  private final IntObjectMap<Synapse.DistalSynapse> synapsesByCell = new IntObjectMap<Synapse.DistalSynapse>();
+  //Time step segment was created or last active in, least recently active segments are evicted first
+  private long lastActiveStep;
+
+  //Activity in Cell.NOW forward propagated from presynaptic cells, see Layer.propagateDistalActivity()
+  private long propagatedVersion = -1;
+  private int propagatedActiveCount;
+  private int propagatedLearnCount;
+  //Cells states version of the last synapses change
+  private long changedVersion = -1;
+
+  //Memoized activity counters by time and kind(time * ACTIVITY_KINDS + kind).
+  //Cell.NOW counters are valid for cells states version, counters in time before for the time step.
+  private int[] activityCache;
+  private long activityCacheVersion = -1;
+  private long activityCacheStep = -1;
+
 
   //We need to check if synapse connected to this cell is already exist before adding new one
   @Override public boolean addElement(Synapse.DistalSynapse distalSynapse) {
-    Cell newSynapseCell = distalSynapse.getFromCell();
-    for (Synapse.DistalSynapse existingSynapse : elementList) {
-      if (existingSynapse.getFromCell() == newSynapseCell) {
-        return false;
-      }
+    if (synapsesByCell.containsKey(distalSynapse.getFromCell().getLayerIndex())) {
+      return false;
     }
     distalSynapse.setSegment(this);
-    return super.addElement(distalSynapse);
+    boolean result = super.addElement(distalSynapse);
+    if (result) {
+      synapseAdded(distalSynapse);
+    }
+    return result;
+  }
+
+  @Override public boolean addAll(List<Synapse.DistalSynapse> all) {
+    boolean result = super.addAll(all);
+    for (Synapse.DistalSynapse distalSynapse : all) {
+      synapseAdded(distalSynapse);
+    }
+    return result;
+  }
+
+  /**
+   * Only segments attached to cell are in presynaptic cells outgoing synapses index
+   */
+  protected boolean isPresynapticIndexed() {
+    return !detached;
+  }
+
+  @Override public void removeElement(Synapse.DistalSynapse distalSynapse) {
+    int fromCellIndex = distalSynapse.getFromCell().getLayerIndex();
+    if (synapsesByCell.get(fromCellIndex) != distalSynapse) {
+      return;
+    }
+    super.removeElement(distalSynapse);
+    synapsesByCell.remove(fromCellIndex);
+    if (distalSynapse.getSegment() == this) {
+      distalSynapse.setSegment(null);
+    }
+    if (isPresynapticIndexed()) {
+      distalSynapse.getFromCell().removeOutgoingSynapse(distalSynapse);
+    }
+    synapsesChanged();
+  }
+
+  /**
+   * Remove synapses which permanence dropped to 0
+   *
+   * @return number of removed synapses
+   */
+  public int removeDeadSynapses() {
+    List<Synapse.DistalSynapse> dead = new ArrayList<Synapse.DistalSynapse>();
+    for (Synapse.DistalSynapse distalSynapse : elementList) {
+      if (distalSynapse.getPermanence() <= 0) {
+        dead.add(distalSynapse);
+      }
+    }
+    for (Synapse.DistalSynapse distalSynapse : dead) {
+      removeElement(distalSynapse);
+    }
+    return dead.size();
+  }
+
+  /**
+   * Remove synapses with the lowest permanence, synapses from cells the keep segment has synapses from are not removed
+   *
+   * @return number of removed synapses
+   */
+  public int removeWeakestSynapses(int count, DistalDendriteSegment keep) {
+    List<Synapse.DistalSynapse> candidates = new ArrayList<Synapse.DistalSynapse>();
+    for (Synapse.DistalSynapse distalSynapse : elementList) {
+      if (keep == null || !keep.hasSynapseFrom(distalSynapse.getFromCell())) {
+        candidates.add(distalSynapse);
+      }
+    }
+    //Stable sort, older synapses go first among equally weak
+    Collections.sort(candidates, new Comparator<Synapse.DistalSynapse>() {
+      @Override public int compare(Synapse.DistalSynapse synapse1, Synapse.DistalSynapse synapse2) {
+        return Double.compare(synapse1.getPermanence(), synapse2.getPermanence());
+      }
+    });
+    int result = Math.min(count, candidates.size());
+    for (int i = 0; i < result; i++) {
+      removeElement(candidates.get(i));
+    }
+    return result;
+  }
+
+  protected void synapseAdded(Synapse.DistalSynapse distalSynapse) {
+    synapsesByCell.put(distalSynapse.getFromCell().getLayerIndex(), distalSynapse);
+    if (isPresynapticIndexed()) {
+      distalSynapse.getFromCell().addOutgoingSynapse(distalSynapse);
+    }
+    synapsesChanged();
+  }
+
+  /**
+   * Remove segment synapses from presynaptic cells index, call it when segment is deleted from the cell
+   */
+  void detach() {
+    if (isPresynapticIndexed()) {
+      for (Synapse.DistalSynapse distalSynapse : elementList) {
+        distalSynapse.getFromCell().removeOutgoingSynapse(distalSynapse);
+      }
+    }
+    detached = true;
+  }
+
+  public boolean isDetached() {
+    return detached;
+  }
+
+  public long getLastActiveStep() {
+    return lastActiveStep;
+  }
+
+  /**
+   * Remember current time step as the last one segment was active in
+   */
+  public void markActive() {
+    lastActiveStep = owner.getLayer().getCellStateHistory().getStep();
+  }
+
+  /**
+   * Called when synapse is added or synapse connected state changed
+   */
+  void synapsesChanged() {
+    changedVersion = owner.getLayer().getCellStateHistory().getVersion();
+    activityCacheVersion = -1;
+    activityCacheStep = -1;
+  }
+
+  void addPropagatedActivity(long version, boolean active, boolean learn) {
+    if (propagatedVersion != version) {
+      propagatedVersion = version;
+      propagatedActiveCount = 0;
+      propagatedLearnCount = 0;
+    }
+    if (active) {
+      propagatedActiveCount++;
+    }
+    if (learn) {
+      propagatedLearnCount++;
+    }
   }
 
   @Override public String toString() {
@@ -41,6 +202,7 @@ public class DistalDendriteSegment extends Composite<Cell, Synapse.DistalSynapse
   public DistalDendriteSegment(Cell belongsToCell, DistalDendriteSegment predictedBy) {
     this.owner = belongsToCell;
     this.predictedBy = predictedBy;
+    markActive();
     attachToCell();
   }
 
@@ -55,7 +217,14 @@ public class DistalDendriteSegment extends Composite<Cell, Synapse.DistalSynapse
   public int size(){return elementList.size();}
 
   public boolean contains(Synapse.DistalSynapse synapse){
-   return elementList.contains(synapse);
+   return synapsesByCell.get(synapse.getFromCell().getLayerIndex()) == synapse;
+  }
+
+  /**
+   * @return true if segment has synapse from the cell
+   */
+  public boolean hasSynapseFrom(Cell cell) {
+    return synapsesByCell.containsKey(cell.getLayerIndex());
   }
 
 
@@ -64,6 +233,71 @@ public class DistalDendriteSegment extends Composite<Cell, Synapse.DistalSynapse
     return CollectionUtils.filter(this.elementList, new ConnectedCellStateByTimePredicate(time, state));
   }
 
+  /**
+   * Number of connected synapses with the cell state at time, same as getConnectedWithStateCell(time, state).size().
+   * Counters propagated by presynaptic cells are used if they are still valid.
+   */
+  public int getConnectedWithStateCellCount(int time, Cell.State state) {
+    Layer layer = owner.getLayer();
+    if (time == Cell.NOW && isPresynapticIndexed() && layer.isDistalActivityPropagated()
+        && changedVersion != layer.getCellStateHistory().getVersion()) {
+      if (propagatedVersion != layer.getCellStateHistory().getVersion()) {
+        return 0;
+      }
+      return state == Cell.State.ACTIVE ? propagatedActiveCount : propagatedLearnCount;
+    }
+    return getActivity(time, state == Cell.State.ACTIVE ? CONNECTED_ACTIVE : CONNECTED_LEARN);
+  }
+
+  /**
+   * Number of synapses with active and learning cell at time, same as getActiveCellSynapses(time).size()
+   */
+  public int getActiveCellSynapsesCount(int time) {
+    return getActivity(time, ACTIVE_LEARN);
+  }
+
+  private int getActivity(int time, int kind) {
+    CellStateHistory stateHistory = owner.getLayer().getCellStateHistory();
+    if (activityCache == null) {
+      activityCache = new int[Cell.TIME_STEPS * ACTIVITY_KINDS];
+    }
+    if (time == Cell.NOW) {
+      if (activityCacheVersion != stateHistory.getVersion()) {
+        Arrays.fill(activityCache, 0, ACTIVITY_KINDS, NOT_COUNTED);
+        activityCacheVersion = stateHistory.getVersion();
+      }
+    } else if (activityCacheStep != stateHistory.getStep()) {
+      Arrays.fill(activityCache, ACTIVITY_KINDS, activityCache.length, NOT_COUNTED);
+      activityCacheStep = stateHistory.getStep();
+    }
+    int inx = time * ACTIVITY_KINDS + kind;
+    if (activityCache[inx] == NOT_COUNTED) {
+      activityCache[inx] = countActivity(time, kind);
+    }
+    return activityCache[inx];
+  }
+
+  private int countActivity(int time, int kind) {
+    CollectionUtils.Predicate<Synapse.DistalSynapse> predicate;
+    switch (kind) {
+      case CONNECTED_ACTIVE:
+        predicate = new ConnectedCellStateByTimePredicate(time, Cell.State.ACTIVE);
+        break;
+      case CONNECTED_LEARN:
+        predicate = new ConnectedCellStateByTimePredicate(time, Cell.State.LEARN);
+        break;
+      default:
+        predicate = new ActiveCellByTimePredicate(time);
+    }
+    int result = 0;
+    for (Synapse.DistalSynapse distalSynapse : elementList) {
+      if (predicate.apply(distalSynapse)) {
+        result++;
+      }
+    }
+    return result;
+  }
+
   public List<Synapse.DistalSynapse> getActiveCellSynapses(int time) {
     return CollectionUtils.filter(this.elementList, new ActiveCellByTimePredicate(time));
   }
@@ -126,11 +360,16 @@ public class DistalDendriteSegment extends Composite<Cell, Synapse.DistalSynapse
   public static class Update extends DistalDendriteSegment {
     private final DistalDendriteSegment target;
     private final int time;
+    //Time step update was queued in, updates older than Cell.SEGMENT_UPDATES_HORIZON steps expire
+    private final long createdStep;
+    //Indexes of columns of presynaptic cells
+    private final IntSet columns = new IntSet();
 
     public Update(Cell belongsToCell, DistalDendriteSegment target, int time, DistalDendriteSegment predictedBy) {
       super(belongsToCell, predictedBy);
       this.target = target;
       this.time = time;
+      this.createdStep = belongsToCell.getLayer().getCellStateHistory().getStep();
     }
 
     @Override
@@ -153,7 +392,32 @@ public class DistalDendriteSegment extends Composite<Cell, Synapse.DistalSynapse
 
     @Override
     protected void attachToCell() {
-      this.owner.getSegmentUpdates().add(this);
+      this.owner.queueSegmentUpdate(this);
+    }
+
+    @Override
+    protected boolean isPresynapticIndexed() {
+      return false;
+    }
+
+    @Override protected void synapseAdded(Synapse.DistalSynapse distalSynapse) {
+      columns.add(distalSynapse.getFromCell().getOwner().getIndex());
+      super.synapseAdded(distalSynapse);
+    }
+
+    @Override public void removeElement(Synapse.DistalSynapse distalSynapse) {
+      super.removeElement(distalSynapse);
+      columns.clear();
+      for (Synapse.DistalSynapse synapse : elementList) {
+        columns.add(synapse.getFromCell().getOwner().getIndex());
+      }
+    }
+
+    /**
+     * @return true if update has synapse from any cell of the column
+     */
+    public boolean touchesColumn(int columnIndex) {
+      return columns.contains(columnIndex);
     }
 
     public boolean isNewSegment() {
@@ -168,6 +432,10 @@ public class DistalDendriteSegment extends Composite<Cell, Synapse.DistalSynapse
       return time;
     }
 
+    public long getCreatedStep() {
+      return createdStep;
+    }
+
     @Override
     public String toString() {
       StringBuilder result = new StringBuilder().append(" New Segment:").append(this.isNewSegment());
@@ -5,10 +5,12 @@ import htm.model.algorithms.temporal.TemporalPooler;
 import htm.model.space.BaseSpace;
 import htm.model.space.InputSpace;
 import htm.utils.CollectionUtils;
+import htm.utils.MathUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.awt.*;
+import java.util.Arrays;
 import java.util.List;
 
 
@@ -37,6 +39,60 @@ public class Layer extends BaseSpace<Region, Column> {
 
   private final boolean skipSpatial;
 
+  /**
+   * Model seed, all random streams of columns and cells are split from it
+   */
+  private final long seed;
+
+  /**
+   * Number of threads poolers run column ranges on, results don't depend on it
+   */
+  private final int parallelism;
+
+  /**
+   * States of all layer's cells in time t-n, ..., t-1, t
+   */
+  private final CellStateHistory cellStateHistory;
+
+  /**
+   * Cells with queued segment updates by layer index, only they are visited to expire updates. Cells whose
+   * queue was emptied another way stay in it until the next expiry visit.
+   * Bitset words are shared by 64 neighbor cells, column ranges of the poolers own whole words.
+   */
+  private final long[] cellsWithUpdates;
+
+  /**
+   * Permanences and inputs of all columns proximal synapses
+   */
+  private final ProximalSynapseStore proximalSynapseStore;
+
+  /**
+   * Version of cells states the distal activity was forward propagated for
+   */
+  private long propagatedActivityVersion = -1;
+
+  /**
+   * Learning cells indexes by time, built on demand
+   */
+  private final LearningCellIndex[] learningCellIndexes;
+
+  /**
+   * Neighbor indexes buffers of single column queries, per thread since pooler ranges and views query concurrently
+   */
+  private final ThreadLocal<int[]> neighborIndexesBuffer = new ThreadLocal<int[]>() {
+    @Override protected int[] initialValue() {
+      return new int[0];
+    }
+  };
+
+  /**
+   * Columns receptive field sizes are kept by columns, their average is summed up again
+   * only after some of them changed. Sum is redone in columns order instead of running
+   * increments, so the average doesn't drift.
+   */
+  private double averageReceptiveFieldSize;
+  private volatile boolean receptiveFieldSizeChanged = true;
+
   private static final Log LOG = LogFactory.getLog(Layer.class);
 
   private static final CollectionUtils.Predicate<Column> BOTTOM_UP_WINNING_COLUMNS_PREDICATE = new CollectionUtils.Predicate<Column>() {
@@ -69,6 +125,17 @@ public class Layer extends BaseSpace<Region, Column> {
   public Layer(Config layerCfg) {
     super(layerCfg.getRegionDimension().width, layerCfg.getRegionDimension().height);
     this.cellsInColumn = layerCfg.getCellsInColumn();
+    this.seed = layerCfg.getSeed();
+    this.parallelism = layerCfg.getParallelism();
+    this.cellStateHistory = new CellStateHistory(
+            layerCfg.getRegionDimension().width * layerCfg.getRegionDimension().height * cellsInColumn,
+            Cell.TIME_STEPS);
+    this.cellsWithUpdates = new long[(layerCfg.getRegionDimension().width * layerCfg.getRegionDimension().height
+                                      * cellsInColumn + 63) >>> 6];
+    this.learningCellIndexes = new LearningCellIndex[Cell.TIME_STEPS];
+    this.proximalSynapseStore = new ProximalSynapseStore(
+            layerCfg.getRegionDimension().width * layerCfg.getRegionDimension().height,
+            Column.AMOUNT_OF_PROXIMAL_SYNAPSES);
     this.initElementSpace();
     this.inputSpace = new InputSpace(layerCfg.getSensoryInputDimension().width,
                                      layerCfg.getSensoryInputDimension().height);
@@ -100,6 +167,238 @@ public class Layer extends BaseSpace<Region, Column> {
     }
   }
 
+  public ProximalSynapseStore getProximalSynapseStore() {
+    return proximalSynapseStore;
+  }
+
+  public CellStateHistory getCellStateHistory() {
+    return cellStateHistory;
+  }
+
+  /*
+  *Advances all cells of this layer to the next time step.
+  *The current state of each cell (active, learning, predicting) will be set as the
+  *previous state and the current state will be reset to no cell activity by
+  *default until it can be determined.
+  *Call this function before each temporal cycle
+  */
+  public void nextTimeStep() {
+    cellStateHistory.nextTimeStep();
+    long oldestStep = cellStateHistory.getStep() - Cell.SEGMENT_UPDATES_HORIZON;
+    for (int wordInx = 0; wordInx < cellsWithUpdates.length; wordInx++) {
+      long word = cellsWithUpdates[wordInx];
+      while (word != 0) {
+        getCellByLayerIndex((wordInx << 6) + Long.numberOfTrailingZeros(word)).expireSegmentUpdates(oldestStep);
+        word &= word - 1;
+      }
+    }
+  }
+
+  /**
+   * Keep cells with updates in line with cell update queues, call it when the queue becomes empty or not empty
+   */
+  void segmentUpdatesQueued(Cell cell, boolean queued) {
+    int layerIndex = cell.getLayerIndex();
+    if (queued) {
+      cellsWithUpdates[layerIndex >>> 6] |= 1L << layerIndex;
+    } else {
+      cellsWithUpdates[layerIndex >>> 6] &= ~(1L << layerIndex);
+    }
+  }
+
+  /**
+   * Number of cells with queued segment updates
+   */
+  public int getCellsWithUpdatesCount() {
+    int result = 0;
+    for (long word : cellsWithUpdates) {
+      result += Long.bitCount(word);
+    }
+    return result;
+  }
+
+  public Cell getCellByLayerIndex(int layerIndex) {
+    return this.getElementByIndex(layerIndex / cellsInColumn).getElementByIndex(layerIndex % cellsInColumn);
+  }
+
+  /**
+   * Forward propagate current(Cell.NOW) activity of cells through their outgoing distal synapses.
+   * Only active and learning cells are visited, each connected synapse increments activity
+   * counters of the segment it belongs to. After that segments activity in Cell.NOW is known
+   * without walking all synapses of all segments, until cells states change.
+   * Counters are only propagated once for the cells states, segments changed afterwards count synapses directly.
+   */
+  public void propagateDistalActivity() {
+    long version = cellStateHistory.getVersion();
+    if (propagatedActivityVersion == version) {
+      return;
+    }
+    for (int inx = cellStateHistory.nextActiveOrLearnCell(Cell.NOW, 0); inx != -1;
+         inx = cellStateHistory.nextActiveOrLearnCell(Cell.NOW, inx + 1)) {
+      Cell cell = getCellByLayerIndex(inx);
+      boolean active = cell.getActiveState(Cell.NOW), learn = cell.getLearnState(Cell.NOW);
+      for (Synapse.DistalSynapse synapse : cell.getOutgoingSynapses()) {
+        if (synapse.isConnected(Synapse.DistalSynapse.CONNECTED_PERMANENCE)) {
+          synapse.getSegment().addPropagatedActivity(version, active, learn);
+        }
+      }
+    }
+    propagatedActivityVersion = version;
+  }
+
+  /**
+   * Index of cells learning at time, it's rebuilt once cells states in time change
+   */
+  public LearningCellIndex getLearningCellIndex(int time) {
+    synchronized (learningCellIndexes) {
+      LearningCellIndex result = learningCellIndexes[time];
+      if (result == null || !result.isValid()) {
+        result = new LearningCellIndex(time);
+        learningCellIndexes[time] = result;
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Check if distal activity was propagated for current cells states
+   */
+  public boolean isDistalActivityPropagated() {
+    return propagatedActivityVersion == cellStateHistory.getVersion();
+  }
+
+  /**
+   * WP
+   * neighbors(c) A list of all the columns that are within inhibitionRadius of
+   * column c.
+   * <p/>
+   * Allocation free, radius is rounded to 0.1 fraction so neighborhoods of all columns share a few radius stencils.
+   * Fills neighbors with indexes of neighbor columns in index order, column itself is excluded.
+   *
+   * @param neighbors buffer, not shorter than getMaxNeighborsCount(inhibitionRadius)
+   * @return amount of neighbors
+   */
+  public int getNeighborIndexes(Column column, double inhibitionRadius, int[] neighbors) {
+    double roundedInhibitionRadius = MathUtils.round(inhibitionRadius, 1);
+    int count = getIndexesWithinRadius(column.getPosition(), roundedInhibitionRadius, neighbors);
+    //remove itself
+    for (int i = 0; i < count; i++) {
+      if (neighbors[i] == column.getIndex()) {
+        System.arraycopy(neighbors, i + 1, neighbors, i, count - i - 1);
+        count--;
+        break;
+      }
+    }
+    if (count == 0) {
+      throw new IllegalArgumentException(
+              "No neighbors found within inhibitionRadius of: " + inhibitionRadius + ". Please increase receptiveFieldSize by increasing inputRadius for input Space.");
+    }
+    return count;
+  }
+
+  /**
+   * Check if all other columns are neighbors of any column within inhibitionRadius
+   */
+  public boolean isNeighborhoodGlobal(double inhibitionRadius) {
+    double roundedInhibitionRadius = MathUtils.round(inhibitionRadius, 1);
+    int maxDx = getDimension().width - 1, maxDy = getDimension().height - 1;
+    return roundedInhibitionRadius * roundedInhibitionRadius >= (double)maxDx * maxDx + (double)maxDy * maxDy;
+  }
+
+  public int getMaxNeighborsCount(double inhibitionRadius) {
+    return getMaxWithinRadiusCount(MathUtils.round(inhibitionRadius, 1));
+  }
+
+  /**
+   * Buffer of the current thread for getNeighborIndexes, grown to getMaxNeighborsCount(inhibitionRadius).
+   * Content is only valid until the next call from the same thread.
+   */
+  int[] getNeighborIndexesBuffer(double inhibitionRadius) {
+    int[] buffer = neighborIndexesBuffer.get();
+    int count = getMaxNeighborsCount(inhibitionRadius);
+    if (buffer.length < count) {
+      buffer = new int[count];
+      neighborIndexesBuffer.set(buffer);
+    }
+    return buffer;
+  }
+
+  /**
+   * WP
+   * maxDutyCycle(cols) for neighbors(c) of every column c at once.
+   * <p/>
+   * For every row offset within the radius stencil a sliding window max of the row duty cycles is taken,
+   * window half width is the stencil row span. Cost is O(columns * radius): every column takes one window
+   * max per stencil row, and there are 2 * radius + 1 rows. The circular neighborhood is not separable
+   * to make it radius independent as for square windows. Per column Column.getMaxDutyCycle costs
+   * O(columns * radius^2) for all columns instead.
+   *
+   * @param maxDutyCycles buffer for max neighbor active duty cycle by column index
+   */
+  public void getNeighborsMaxDutyCycles(double inhibitionRadius, double[] maxDutyCycles) {
+    int width = getDimension().width, height = getDimension().height;
+    int[] stencil = getRadiusStencil(Math.abs(MathUtils.round(inhibitionRadius, 1)));
+    if (stencil.length == 1 || width * height == 1) {
+      throw new IllegalArgumentException(
+              "No neighbors found within inhibitionRadius of: " + inhibitionRadius + ". Please increase receptiveFieldSize by increasing inputRadius for input Space.");
+    }
+    double[] dutyCycles = new double[width * height];
+    for (Column column : getColumns()) {
+      dutyCycles[column.getIndex()] = column.getActiveDutyCycle();
+    }
+    Arrays.fill(maxDutyCycles, 0, dutyCycles.length, Double.NEGATIVE_INFINITY);
+    double[] rowMax = new double[width];
+    int[] deque = new int[width];
+    int dyMax = stencil.length - 1;
+    for (int y = 0; y < height; y++) {
+      int rowStart = y * width;
+      for (int dy = -dyMax; dy <= dyMax; dy++) {
+        int sourceY = y + dy;
+        if (sourceY < 0 || sourceY >= height) {
+          continue;
+        }
+        int span = stencil[Math.abs(dy)];
+        if (dy == 0) {
+          //column itself is not its neighbor, take left and right of it separately
+          slidingMax(dutyCycles, sourceY * width, width, -span, -1, rowMax, deque);
+          maxInto(rowMax, maxDutyCycles, rowStart, width);
+          slidingMax(dutyCycles, sourceY * width, width, 1, span, rowMax, deque);
+        } else {
+          slidingMax(dutyCycles, sourceY * width, width, -span, span, rowMax, deque);
+        }
+        maxInto(rowMax, maxDutyCycles, rowStart, width);
+      }
+    }
+  }
+
+  private static void maxInto(double[] values, double[] result, int offset, int length) {
+    for (int i = 0; i < length; i++) {
+      result[offset + i] = Math.max(result[offset + i], values[i]);
+    }
+  }
+
+  /**
+   * result[x] is max of values within row window [x + from, x + to] cut to the row,
+   * NEGATIVE_INFINITY for empty window. Window indexes in monotonic deque.
+   */
+  private static void slidingMax(double[] values, int offset, int width, int from, int to, double[] result,
+                                 int[] deque) {
+    int head = 0, tail = 0, next = 0;
+    for (int x = 0; x < width; x++) {
+      int low = x + from, high = Math.min(x + to, width - 1);
+      for (; next <= high; next++) {
+        while (tail > head && values[offset + deque[tail - 1]] <= values[offset + next]) {
+          tail--;
+        }
+        deque[tail++] = next;
+      }
+      while (tail > head && deque[head] < low) {
+        head++;
+      }
+      result[x] = tail > head ? values[offset + deque[head]] : Double.NEGATIVE_INFINITY;
+    }
+  }
+
   public Point convertColumnPositionToInputSpace(Point columnPosition) {
     return convertPositionToOtherSpace(columnPosition, this.getDimension(), inputSpace.getDimension());
   }
@@ -149,19 +448,23 @@ public class Layer extends BaseSpace<Region, Column> {
    */
 
   public double getAverageReceptiveFieldSize() {
-    double sum = 0;
-    for (Column column : getColumns()) {
-      java.util.List<Synapse.ProximalSynapse> connectedSynapses = column.getConnectedSynapses();
-      double maxDistance = 0;
-      for (Synapse.ProximalSynapse connectedSynapse : connectedSynapses) {
-        // Determine the distance of the further proximal synapse. This will be considered the size of the receptive field.
-        maxDistance = Math.max(maxDistance, connectedSynapse.getDistanceToColumn());
+    if (receptiveFieldSizeChanged) {
+      receptiveFieldSizeChanged = false;
+      double sum = 0;
+      for (Column column : getColumns()) {
+        // Add the current column's receptive field size to the sum.
+        sum += column.getMaxConnectedDistance();
       }
-      LOG.debug("maxDistance for column:#" + column.getIndex() + " - " + maxDistance);
-      // Add the current column's receptive field size to the sum.
-      sum += maxDistance;
+      averageReceptiveFieldSize = sum / getColumns().size();
     }
-    return sum / getColumns().size();
+    return averageReceptiveFieldSize;
+  }
+
+  /**
+   * Called by column when its connected receptive field size changes
+   */
+  void receptiveFieldSizeChanged() {
+    receptiveFieldSizeChanged = true;
   }
 
   public Dimension getInputSpaceDimension() {
@@ -188,23 +491,137 @@ public class Layer extends BaseSpace<Region, Column> {
     return cellsInColumn;
   }
 
+  public long getSeed() {
+    return seed;
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Cells learning at time bucketed by square tiles of columns with learning radius side, so cells within
+   * learning radius of any column are found in a few neighbor tiles. Cells states in time before Cell.NOW
+   * don't change within the step, so those indexes are rebuilt once per step.
+   */
+  public class LearningCellIndex {
+    private final int time;
+    private final long step;
+    private final long version;
+    private final int tileSide;
+    private final int tilesInRow;
+    //cells of tile i are cells[tileStarts[i]] ... cells[tileStarts[i + 1] - 1] in layer index order
+    private final int[] tileStarts;
+    private final int[] cells;
+
+    private LearningCellIndex(int time) {
+      this.time = time;
+      this.step = cellStateHistory.getStep();
+      this.version = cellStateHistory.getVersion();
+      Dimension dimension = getDimension();
+      this.tileSide = Math.max(1, (int)Math.ceil(learningRadius));
+      this.tilesInRow = (dimension.width + tileSide - 1) / tileSide;
+      int tilesInColumn = (dimension.height + tileSide - 1) / tileSide;
+      this.tileStarts = new int[tilesInRow * tilesInColumn + 1];
+      int count = 0;
+      for (int inx = cellStateHistory.nextLearnCell(time, 0); inx != -1;
+           inx = cellStateHistory.nextLearnCell(time, inx + 1)) {
+        tileStarts[tileOf(inx) + 1]++;
+        count++;
+      }
+      for (int i = 1; i < tileStarts.length; i++) {
+        tileStarts[i] += tileStarts[i - 1];
+      }
+      this.cells = new int[count];
+      int[] tileEnds = Arrays.copyOf(tileStarts, tileStarts.length - 1);
+      for (int inx = cellStateHistory.nextLearnCell(time, 0); inx != -1;
+           inx = cellStateHistory.nextLearnCell(time, inx + 1)) {
+        cells[tileEnds[tileOf(inx)]++] = inx;
+      }
+    }
+
+    private int tileOf(int cellInx) {
+      int columnInx = cellInx / cellsInColumn, width = getDimension().width;
+      return (columnInx / width / tileSide) * tilesInRow + columnInx % width / tileSide;
+    }
+
+    private boolean isValid() {
+      return time == Cell.NOW ? version == cellStateHistory.getVersion() : step == cellStateHistory.getStep();
+    }
+
+    /**
+     * Amount of learning cells
+     */
+    public int size() {
+      return cells.length;
+    }
+
+    /**
+     * Fills cells with layer indexes of learning cells in columns within radius from center
+     *
+     * @param cells buffer, not shorter than size()
+     * @return amount of filled indexes
+     */
+    public int getCellsWithinRadius(Point center, double radius, int[] cells) {
+      int[] stencil = getRadiusStencil(Math.abs(radius));
+      int dyMax = stencil.length - 1, dxMax = stencil[0], width = getDimension().width, count = 0;
+      int tileYFrom = Math.max(center.y - dyMax, 0) / tileSide;
+      int tileYTo = Math.min(center.y + dyMax, getDimension().height - 1) / tileSide;
+      int tileXFrom = Math.max(center.x - dxMax, 0) / tileSide;
+      int tileXTo = Math.min(center.x + dxMax, width - 1) / tileSide;
+      for (int tileY = tileYFrom; tileY <= tileYTo; tileY++) {
+        for (int tileX = tileXFrom; tileX <= tileXTo; tileX++) {
+          int tile = tileY * tilesInRow + tileX;
+          for (int i = tileStarts[tile]; i < tileStarts[tile + 1]; i++) {
+            int columnInx = this.cells[i] / cellsInColumn;
+            int dy = Math.abs(columnInx / width - center.y);
+            if (dy <= dyMax && Math.abs(columnInx % width - center.x) <= stencil[dy]) {
+              cells[count++] = this.cells[i];
+            }
+          }
+        }
+      }
+      return count;
+    }
+  }
+
   public static class Config {
+    public static final long DEFAULT_SEED = 0;
+    public static final int DEFAULT_PARALLELISM = 1;
+
     private final Dimension regionDimension;
     private final Dimension sensoryInputDimension;
     private final double inputRadius;
     private final double learningRadius;
     private final boolean skipSpatial;
     private final int cellsInColumn;
+    private final long seed;
+    private final int parallelism;
 
 
     public Config(Dimension regionDimension, Dimension sensoryInputDimension,
                   double inputRadius, double learningRadius, boolean skipSpatial, int cellsInColumn) {
+      this(regionDimension, sensoryInputDimension, inputRadius, learningRadius, skipSpatial, cellsInColumn,
+           DEFAULT_SEED);
+    }
+
+    public Config(Dimension regionDimension, Dimension sensoryInputDimension,
+                  double inputRadius, double learningRadius, boolean skipSpatial, int cellsInColumn, long seed) {
+      this(regionDimension, sensoryInputDimension, inputRadius, learningRadius, skipSpatial, cellsInColumn, seed,
+           DEFAULT_PARALLELISM);
+    }
+
+    public Config(Dimension regionDimension, Dimension sensoryInputDimension,
+                  double inputRadius, double learningRadius, boolean skipSpatial, int cellsInColumn, long seed,
+                  int parallelism) {
       this.regionDimension = regionDimension;
       this.sensoryInputDimension = sensoryInputDimension;
       this.inputRadius = inputRadius;
       this.learningRadius = learningRadius;
       this.skipSpatial = skipSpatial;
       this.cellsInColumn = cellsInColumn;
+      this.seed = seed;
+      this.parallelism = parallelism;
     }
 
     public double getLearningRadius() {
@@ -231,6 +648,14 @@ public class Layer extends BaseSpace<Region, Column> {
     public int getCellsInColumn() {
       return cellsInColumn;
     }
+
+    public long getSeed() {
+      return seed;
+    }
+
+    public int getParallelism() {
+      return parallelism;
+    }
   }
 }
 
@@ -0,0 +1,117 @@
+package htm.model;
+
+import java.util.Arrays;
+
+/**
+ * Structure of arrays store of all layer proximal synapses. Permanences, input indexes and distances to
+ * the column are kept in contiguous primitive arrays, synapses of a column occupy synapsesPerColumn slots
+ * starting from column.getIndex() * synapsesPerColumn. Synapse.ProximalSynapse objects are views on the
+ * store created on demand.
+ * <p/>
+ * Learning rules are straight branch free loops over primitive arrays, simple enough for JIT to unroll and
+ * vectorize. They compute connected mask of the column in the same loop, columns compare it with their own.
+ */
+public class ProximalSynapseStore {
+  private final int synapsesPerColumn;
+  private final double[] permanences;
+  private final int[] inputIndexes;
+  private final double[] distances;
+
+  public ProximalSynapseStore(int columnsNumber, int synapsesPerColumn) {
+    this.synapsesPerColumn = synapsesPerColumn;
+    this.permanences = new double[columnsNumber * synapsesPerColumn];
+    this.inputIndexes = new int[columnsNumber * synapsesPerColumn];
+    this.distances = new double[columnsNumber * synapsesPerColumn];
+  }
+
+  public int getSynapsesPerColumn() {
+    return synapsesPerColumn;
+  }
+
+  private int indexOf(int columnIndex, int slot) {
+    if (slot < 0 || slot >= synapsesPerColumn) {
+      throw new IndexOutOfBoundsException("slot: " + slot + ", synapses per column: " + synapsesPerColumn);
+    }
+    return columnIndex * synapsesPerColumn + slot;
+  }
+
+  public double getPermanence(int columnIndex, int slot) {
+    return permanences[indexOf(columnIndex, slot)];
+  }
+
+  void setPermanence(int columnIndex, int slot, double permanence) {
+    permanences[indexOf(columnIndex, slot)] = permanence;
+  }
+
+  public int getInputIndex(int columnIndex, int slot) {
+    return inputIndexes[indexOf(columnIndex, slot)];
+  }
+
+  void setInputIndex(int columnIndex, int slot, int inputIndex) {
+    inputIndexes[indexOf(columnIndex, slot)] = inputIndex;
+  }
+
+  public double getDistanceToColumn(int columnIndex, int slot) {
+    return distances[indexOf(columnIndex, slot)];
+  }
+
+  void setDistanceToColumn(int columnIndex, int slot, double distance) {
+    distances[indexOf(columnIndex, slot)] = distance;
+  }
+
+  /**
+   * Index of the synapse in the store, the same for all store arrays
+   */
+  public int getStoreIndex(int columnIndex, int slot) {
+    return indexOf(columnIndex, slot);
+  }
+
+  public int getColumnIndex(int storeIndex) {
+    return storeIndex / synapsesPerColumn;
+  }
+
+  public int getSlot(int storeIndex) {
+    return storeIndex % synapsesPerColumn;
+  }
+
+  /**
+   * Increment permanences of column synapses with active inputs, decrement the others, keep them within [0, 1]
+   *
+   * @param synapsesNumber      number of column synapses
+   * @param inputActivity       1 for active inputs, 0 for inactive ones by input index
+   * @param connectedPermanence permanence synapse is connected from
+   * @param connectedMask       connected synapses by slot after the update
+   */
+  void adaptPermanences(int columnIndex, int synapsesNumber, double[] inputActivity, double increase,
+                        double decrease, double connectedPermanence, long[] connectedMask) {
+    int from = columnIndex * synapsesPerColumn, to = from + synapsesNumber;
+    Arrays.fill(connectedMask, 0);
+    for (int i = from; i < to; i++) {
+      //active * increase - inactive * decrease is exactly +increase or -decrease
+      double active = inputActivity[inputIndexes[i]];
+      double permanence = Math.min(Math.max(permanences[i] + (active * increase - (1 - active) * decrease), 0), 1);
+      permanences[i] = permanence;
+      int slot = i - from;
+      connectedMask[slot >>> 6] |= (permanence >= connectedPermanence ? 1L : 0L) << slot;
+    }
+  }
+
+  /**
+   * Increase permanences of column synapses by increaseBy, keep them within [0, 1]
+   *
+   * @param synapsesNumber      number of column synapses
+   * @param connectedPermanence permanence synapse is connected from
+   * @param connectedMask       connected synapses by slot after the update
+   */
+  void increasePermanences(int columnIndex, int synapsesNumber, double increaseBy, double connectedPermanence,
+                           long[] connectedMask) {
+    int from = columnIndex * synapsesPerColumn, to = from + synapsesNumber;
+    Arrays.fill(connectedMask, 0);
+    for (int i = from; i < to; i++) {
+      double permanence = Math.min(Math.max(permanences[i] + increaseBy, 0), 1);
+      permanences[i] = permanence;
+      int slot = i - from;
+      connectedMask[slot >>> 6] |= (permanence >= connectedPermanence ? 1L : 0L) << slot;
+    }
+  }
+}
@@ -1,6 +1,5 @@
 package htm.model;
 
-import htm.model.space.BaseSpace;
 import htm.model.space.InputSpace;
 import htm.utils.CircularArrayList;
 import htm.utils.MathUtils;
@@ -12,6 +11,12 @@ public class Synapse {
     this.permanence = initPermanence;
   }
 
+  /**
+   * For synapses keeping permanence outside of the object
+   */
+  protected Synapse() {
+  }
+
   /**
    * synapse is considered connected if its permanence is bigger than
    * connectedPermanence
@@ -58,26 +63,55 @@ public class Synapse {
       ProximalSynapse.PERMANENCE_DECREASE = synapseCfg.getPermanenceDec();
     }
 
-    private final InputSpace.Input connectedSensoryInput;
+    //permanence, input and distance are kept by the layer store, the synapse is a view on its slot
     private final Column belongsTo;
-    private final double distanceToColumn;
+    //index of the synapse in column potential synapses
+    private final int slot;
 
-    public ProximalSynapse(double initPermanence, InputSpace.Input connectedSensoryInput, Column belongsTo) {
-      super(initPermanence);
-      this.connectedSensoryInput = connectedSensoryInput;
+    ProximalSynapse(Column belongsTo, int slot) {
       this.belongsTo = belongsTo;
-      this.distanceToColumn = BaseSpace.getDistance(belongsTo.getOwner().convertInputPositionToColumnSpace(
-              connectedSensoryInput.getPosition()),
-                                                    belongsTo.getPosition());
+      this.slot = slot;
+    }
+
+    private ProximalSynapseStore getStore() {
+      return belongsTo.getOwner().getProximalSynapseStore();
+    }
+
+    @Override
+    public double getPermanence() {
+      return getStore().getPermanence(belongsTo.getIndex(), slot);
+    }
+
+    @Override
+    public void setPermanence(double d) {
+      getStore().setPermanence(belongsTo.getIndex(), slot, Math.min(Math.max(d, 0), 1));
+      belongsTo.updateSynapseConnected(slot);
+    }
+
+    @Override
+    public boolean isConnected(double connectedPermanence) {
+      return getPermanence() >= connectedPermanence;
+    }
+
+    /**
+     * Connected state against CONNECTED_PERMANENCE
+     */
+    public boolean isConnected() {
+      return belongsTo.isSynapseConnected(slot);
+    }
+
+    public int getSlot() {
+      return slot;
     }
 
 
     public InputSpace.Input getConnectedSensoryInput() {
-      return connectedSensoryInput;
+      return belongsTo.getOwner().getInputSpace().getElementByIndex(getStore().getInputIndex(belongsTo.getIndex(),
+                                                                                             slot));
     }
 
     public double getDistanceToColumn() {
-      return distanceToColumn;
+      return getStore().getDistanceToColumn(belongsTo.getIndex(), slot);
     }
 
     public Column getBelongsTo() {
@@ -103,6 +137,8 @@ public class Synapse {
 
     private final Cell fromCell;
     private DistalDendriteSegment segment;
+    //position in outgoing synapses of the presynaptic cell, -1 when not registered there
+    private int outgoingIndex = -1;
 
 
     public static void updateFromConfig(Config synapseCfg) {
@@ -133,6 +169,23 @@ public class Synapse {
       this.segment = segment;
     }
 
+    int getOutgoingIndex() {
+      return outgoingIndex;
+    }
+
+    void setOutgoingIndex(int outgoingIndex) {
+      this.outgoingIndex = outgoingIndex;
+    }
+
+    @Override
+    public void setPermanence(double d) {
+      boolean connected = isConnected(CONNECTED_PERMANENCE);
+      super.setPermanence(d);
+      if (segment != null && connected != isConnected(CONNECTED_PERMANENCE)) {
+        segment.synapsesChanged();
+      }
+    }
+
     /*Added by Kirill to track speed of permanence changes for active cells*/
 
     public static final int PERMANENCE_RANGE_BUFFER_SIZE = 20;
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2011, Peace Technology, Inc.
+ * $Author:$
+ * $Revision:$
+ * $Date:$
+ * $NoKeywords$
+ */
+
+package htm.model.algorithms;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Runs a task over ranges of column indexes on a fixed thread pool and waits for all of them.
+ * Range bounds are multiples of 64 columns, so tasks running at the same time never write
+ * the same word of layer bitsets addressed by column or cell index.
+ * With parallelism of 1 tasks run in the calling thread.
+ */
+public class ColumnRangeExecutor {
+  public static final ColumnRangeExecutor SEQUENTIAL = new ColumnRangeExecutor(1);
+
+  private static final int RANGE_ALIGNMENT = 64;
+
+  private final int parallelism;
+  private final ExecutorService executorService;
+
+  public ColumnRangeExecutor(int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("parallelism should be positive: " + parallelism);
+    }
+    this.parallelism = parallelism;
+    this.executorService = parallelism == 1 ? null : Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+      private int threadNumber = 0;
+
+      @Override public synchronized Thread newThread(Runnable runnable) {
+        Thread result = new Thread(runnable, "htm-column-range-" + threadNumber++);
+        result.setDaemon(true);
+        return result;
+      }
+    });
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  public interface RangeTask {
+    /**
+     * @param from first column index, inclusive
+     * @param to   last column index, exclusive
+     */
+    void run(int from, int to);
+  }
+
+  public void execute(int columnsNumber, final RangeTask task) {
+    if (executorService == null || columnsNumber <= RANGE_ALIGNMENT) {
+      task.run(0, columnsNumber);
+      return;
+    }
+    int ranges = Math.min(parallelism * 4, (columnsNumber + RANGE_ALIGNMENT - 1) / RANGE_ALIGNMENT);
+    int rangeSize = (columnsNumber + ranges - 1) / ranges;
+    rangeSize = (rangeSize + RANGE_ALIGNMENT - 1) / RANGE_ALIGNMENT * RANGE_ALIGNMENT;
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    for (int from = 0; from < columnsNumber; from += rangeSize) {
+      final int rangeFrom = from, rangeTo = Math.min(from + rangeSize, columnsNumber);
+      futures.add(executorService.submit(new Runnable() {
+        @Override public void run() {
+          task.run(rangeFrom, rangeTo);
+        }
+      }));
+    }
+    RuntimeException failure = null;
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while waiting for column range tasks", e);
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          Throwable cause = e.getCause();
+          if (cause instanceof Error) {
+            throw (Error)cause;
+          }
+          failure = cause instanceof RuntimeException ? (RuntimeException)cause : new RuntimeException(cause);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  public void shutdown() {
+    if (executorService != null) {
+      executorService.shutdown();
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2011, Peace Technology, Inc.
+ * $Author:$
+ * $Revision:$
+ * $Date:$
+ * $NoKeywords$
+ */
+
+package htm.model.algorithms;
+
+import htm.model.Column;
+import htm.model.algorithms.spatial.SpatialPooler;
+import htm.model.algorithms.temporal.TemporalPooler;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Runs spatial pooling of the next input while temporal pooling of the current one is still running.
+ * Temporal pooling of input t only depends on columns active after spatial pooling of t, and spatial pooling
+ * of input t + 1 only on proximal synapses, so they run on separate threads. Active columns are handed over
+ * through two bitsets: spatial pooler output is copied to one while temporal pooler reads the other.
+ * <p/>
+ * After flush() the model is in the same state as after running both poolers one after another.
+ */
+public class PipelinedRunner {
+  private final SpatialPooler spatialPooler;
+  private final TemporalPooler temporalPooler;
+  private final BitSet[] activeColumns = new BitSet[]{new BitSet(), new BitSet()};
+  private int buffer = 0;
+  private ExecutorService temporalExecutor;
+  private Future<?> temporalStep;
+
+  public PipelinedRunner(SpatialPooler spatialPooler, TemporalPooler temporalPooler) {
+    if (spatialPooler.getLayer() != temporalPooler.getLayer()) {
+      throw new IllegalArgumentException("Spatial and Temporal Poolers should work on the same layer");
+    }
+    this.spatialPooler = spatialPooler;
+    this.temporalPooler = temporalPooler;
+  }
+
+  /**
+   * Run spatial pooling for current input and start temporal pooling for it once temporal pooling
+   * of the previous input is done. Input may be changed for the next step as soon as this returns.
+   */
+  public void step() {
+    spatialPooler.execute();
+    BitSet active = activeColumns[buffer];
+    active.clear();
+    List<Column> columns = spatialPooler.getLayer().getElementsList();
+    for (int i = 0; i < columns.size(); i++) {
+      if (columns.get(i).isActive()) {
+        active.set(i);
+      }
+    }
+    awaitTemporalStep();
+    temporalPooler.setActiveColumns(active);
+    temporalStep = getTemporalExecutor().submit(new Runnable() {
+      @Override public void run() {
+        temporalPooler.execute();
+      }
+    });
+    buffer ^= 1;
+  }
+
+  /**
+   * Wait for temporal pooling of the last input, after that poolers may be run directly again
+   */
+  public void flush() {
+    awaitTemporalStep();
+    temporalPooler.setActiveColumns(null);
+  }
+
+  public void shutdown() {
+    flush();
+    if (temporalExecutor != null) {
+      temporalExecutor.shutdown();
+      temporalExecutor = null;
+    }
+  }
+
+  private ExecutorService getTemporalExecutor() {
+    if (temporalExecutor == null) {
+      temporalExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override public Thread newThread(Runnable runnable) {
+          Thread result = new Thread(runnable, "htm-temporal-pipeline");
+          result.setDaemon(true);
+          return result;
+        }
+      });
+    }
+    return temporalExecutor;
+  }
+
+  private void awaitTemporalStep() {
+    if (temporalStep == null) {
+      return;
+    }
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          temporalStep.get();
+          break;
+        } catch (InterruptedException e) {
+          //temporal step is short, wait until it's done anyway so steps never overlap
+          interrupted = true;
+        }
+      }
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Error) {
+        throw (Error)cause;
+      }
+      throw cause instanceof RuntimeException ? (RuntimeException)cause : new RuntimeException(cause);
+    } finally {
+      temporalStep = null;
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
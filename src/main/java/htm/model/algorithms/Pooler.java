@@ -15,6 +15,7 @@ import htm.model.algorithms.temporal.TemporalPooler;
 public abstract class Pooler {
   protected Layer layer;
   protected boolean learningMode = true;
+  protected ColumnRangeExecutor executor = ColumnRangeExecutor.SEQUENTIAL;
 
   public boolean isLearningMode() {
     return learningMode;
@@ -24,6 +25,21 @@ public abstract class Pooler {
     this.learningMode = learningMode;
   }
 
+  public ColumnRangeExecutor getExecutor() {
+    return executor;
+  }
+
+  /**
+   * Executor to run pooler phases over column ranges, results don't depend on its parallelism
+   */
+  public void setExecutor(ColumnRangeExecutor executor) {
+    this.executor = executor;
+  }
+
+  public Layer getLayer() {
+    return layer;
+  }
+
   public Pooler setLayer(Layer layer) {
     this.layer = layer;
     if(TemporalPooler.class.isAssignableFrom(this.getClass())){
@@ -16,10 +16,16 @@ public abstract class SpatialPooler extends htm.model.algorithms.Pooler {
 
   private final int desiredLocalActivity;
 
+  private boolean incrementalOverlap;
+
+  private boolean globalInhibition;
+
   protected SpatialPooler(Config cfg) {
     this.minimalOverlap = cfg.getMinOverlap();
     this.boostRate = cfg.getBoostRate();
     this.desiredLocalActivity = cfg.getDesiredLocalActivity();
+    this.globalInhibition = cfg.isGlobalInhibition();
+    this.incrementalOverlap = cfg.isIncrementalOverlap();
   }
 
   /**
@@ -47,16 +53,56 @@ public abstract class SpatialPooler extends htm.model.algorithms.Pooler {
     return desiredLocalActivity;
   }
 
+  /**
+   * In incremental mode overlap is only adjusted for inputs changed since the previous step,
+   * all overlaps are recomputed after proximal synapses connected state changes.
+   */
+  public boolean isIncrementalOverlap() {
+    return incrementalOverlap;
+  }
+
+  public void setIncrementalOverlap(boolean incrementalOverlap) {
+    this.incrementalOverlap = incrementalOverlap;
+  }
+
+  /**
+   * With global inhibition all columns of the layer inhibit each other whatever inhibition radius is.
+   * Inhibition is global anyway once inhibition radius covers the whole layer.
+   */
+  public boolean isGlobalInhibition() {
+    return globalInhibition;
+  }
+
+  public void setGlobalInhibition(boolean globalInhibition) {
+    this.globalInhibition = globalInhibition;
+  }
+
   public static class Config {
+    public static final boolean DEFAULT_INCREMENTAL_OVERLAP = true;
+
     private final int minOverlap;
     private final int desiredLocalActivity;
     private final double boostRate;
+    private final boolean globalInhibition;
+    private final boolean incrementalOverlap;
 
     public Config(int minOverlap, int desiredLocalActivity,
                   double boostRate) {
+      this(minOverlap, desiredLocalActivity, boostRate, false);
+    }
+
+    public Config(int minOverlap, int desiredLocalActivity,
+                  double boostRate, boolean globalInhibition) {
+      this(minOverlap, desiredLocalActivity, boostRate, globalInhibition, DEFAULT_INCREMENTAL_OVERLAP);
+    }
+
+    public Config(int minOverlap, int desiredLocalActivity,
+                  double boostRate, boolean globalInhibition, boolean incrementalOverlap) {
       this.minOverlap = minOverlap;
       this.desiredLocalActivity = desiredLocalActivity;
       this.boostRate = boostRate;
+      this.globalInhibition = globalInhibition;
+      this.incrementalOverlap = incrementalOverlap;
     }
 
 
@@ -71,6 +117,14 @@ public abstract class SpatialPooler extends htm.model.algorithms.Pooler {
     public double getBoostRate() {
       return boostRate;
     }
+
+    public boolean isGlobalInhibition() {
+      return globalInhibition;
+    }
+
+    public boolean isIncrementalOverlap() {
+      return incrementalOverlap;
+    }
   }
 }
 
@@ -9,13 +9,17 @@
 package htm.model.algorithms.spatial;
 
 import htm.model.Column;
+import htm.model.ProximalSynapseStore;
 import htm.model.Synapse;
+import htm.model.algorithms.ColumnRangeExecutor;
+import htm.model.space.InputSpace;
+import htm.utils.MathUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 
 public class WhitePaperSpatialPooler extends SpatialPooler {
@@ -23,12 +27,19 @@ public class WhitePaperSpatialPooler extends SpatialPooler {
   private static final Log LOG = LogFactory.getLog(WhitePaperSpatialPooler.class);
 
 
-  private static final Comparator<Column> OVERLAP_COMPARATOR = new Comparator<Column>() {
-    @Override public int compare(Column column1, Column column2) {
-      Double overlap1 = column1.getOverlap(), overlap2 = column2.getOverlap();
-      return overlap2.compareTo(overlap1);
-    }
-  };
+  //connected active synapses count by column index
+  private int[] overlapCounts = new int[0];
+  //input values overlapCounts were computed for, null if overlapCounts are not valid
+  private BitSet overlapInputs;
+
+  //max neighbor active duty cycle by column index
+  private double[] maxDutyCycles = new double[0];
+
+  //overlaps scratch buffer for global inhibition
+  private double[] layerOverlaps = new double[0];
+
+  //1 for active and 0 for inactive inputs by input index, read by learning columns
+  private double[] inputActivity;
 
   public WhitePaperSpatialPooler(Config cfg) {
     super(cfg);
@@ -86,16 +97,99 @@ public class WhitePaperSpatialPooler extends SpatialPooler {
 
   public void phaseOne() {
     //Phase 1: Compute the overlap
-    for (Column column : layer.getElementsList()) {
-      computeOverlapForColumn(column);
+    final List<Column> columns = layer.getElementsList();
+    InputSpace inputSpace = layer.getInputSpace();
+    ProximalSynapseStore store = layer.getProximalSynapseStore();
+    BitSet inputs = inputSpace.getValues();
+    if (isIncrementalOverlap() && overlapInputs != null && overlapCounts.length == columns.size()
+        && !inputSpace.isProximalConnectionsChanged()) {
+      //only synapses of changed inputs change overlap
+      BitSet changedInputs = (BitSet)inputs.clone();
+      changedInputs.xor(overlapInputs);
+      for (int inputIndex = changedInputs.nextSetBit(0); inputIndex != -1;
+           inputIndex = changedInputs.nextSetBit(inputIndex + 1)) {
+        int delta = inputs.get(inputIndex) ? 1 : -1;
+        int[] storeIndexes = inputSpace.getProximalSynapses(inputIndex);
+        for (int i = 0, count = inputSpace.getProximalSynapsesCount(inputIndex); i < count; i++) {
+          int columnIndex = store.getColumnIndex(storeIndexes[i]);
+          if (columns.get(columnIndex).isSynapseConnected(store.getSlot(storeIndexes[i]))) {
+            overlapCounts[columnIndex] += delta;
+          }
+        }
+      }
+    } else {
+      inputSpace.setProximalConnectionsChanged(false);
+      if (overlapCounts.length != columns.size()) {
+        overlapCounts = new int[columns.size()];
+      } else {
+        Arrays.fill(overlapCounts, 0);
+      }
+      //only synapses of active inputs can add overlap
+      for (int inputIndex = inputs.nextSetBit(0); inputIndex != -1; inputIndex = inputs.nextSetBit(inputIndex + 1)) {
+        int[] storeIndexes = inputSpace.getProximalSynapses(inputIndex);
+        for (int i = 0, count = inputSpace.getProximalSynapsesCount(inputIndex); i < count; i++) {
+          int columnIndex = store.getColumnIndex(storeIndexes[i]);
+          if (columns.get(columnIndex).isSynapseConnected(store.getSlot(storeIndexes[i]))) {
+            overlapCounts[columnIndex]++;
+          }
+        }
+      }
     }
+    overlapInputs = inputs;
+    executor.execute(columns.size(), new ColumnRangeExecutor.RangeTask() {
+      @Override public void run(int from, int to) {
+        for (int i = from; i < to; i++) {
+          Column column = columns.get(i);
+          computeOverlapForColumn(column, overlapCounts[column.getIndex()]);
+        }
+      }
+    });
   }
 
-  public List<Column> phaseTwo(double inhibitionRadius) {
+  public List<Column> phaseTwo(final double inhibitionRadius) {
     //Phase 2:Compute the winning columns after inhibition
+    final List<Column> columns = layer.getElementsList();
+    if (columns.size() > 1 && (isGlobalInhibition() || layer.isNeighborhoodGlobal(inhibitionRadius))) {
+      /*All other columns are neighbors, so k'th score of any column neighbors is either k'th or (k+1)'th
+      score of the layer, depending on whether the column itself is within top k*/
+      int columnsCount = columns.size();
+      if (layerOverlaps.length != columnsCount) {
+        layerOverlaps = new double[columnsCount];
+      }
+      for (int i = 0; i < columnsCount; i++) {
+        layerOverlaps[i] = columns.get(i).getOverlap();
+      }
+      int desiredLocalActivity = Math.min(this.getDesiredLocalActivity(), columnsCount - 1);
+      final double kthOverlap = MathUtils.kthLargest(layerOverlaps, columnsCount, desiredLocalActivity);
+      //scores below k'th are before it after selection, (k+1)'th is the biggest of them
+      double maxBelowKth = layerOverlaps[0];
+      for (int i = 1; i < columnsCount - desiredLocalActivity; i++) {
+        maxBelowKth = Math.max(maxBelowKth, layerOverlaps[i]);
+      }
+      final double nextOverlap = maxBelowKth;
+      executor.execute(columnsCount, new ColumnRangeExecutor.RangeTask() {
+        @Override public void run(int from, int to) {
+          for (int i = from; i < to; i++) {
+            Column column = columns.get(i);
+            activateByMinLocalActivity(column, column.getOverlap() >= kthOverlap ? nextOverlap : kthOverlap);
+          }
+        }
+      });
+    } else {
+      final int maxNeighborsCount = layer.getMaxNeighborsCount(inhibitionRadius);
+      executor.execute(columns.size(), new ColumnRangeExecutor.RangeTask() {
+        @Override public void run(int from, int to) {
+          int[] neighborIndexes = new int[maxNeighborsCount];
+          double[] neighborOverlaps = new double[maxNeighborsCount];
+          for (int i = from; i < to; i++) {
+            computeActiveDoInhibitionForColumn(columns.get(i), inhibitionRadius, neighborIndexes, neighborOverlaps);
+          }
+        }
+      });
+    }
     List<Column> activeColumns = new ArrayList<Column>();
-    for (Column column : layer.getElementsList()) {
-      if (computeActiveDoInhibitionForColumn(column, inhibitionRadius)) {
+    for (Column column : columns) {
+      if (column.isActive()) {
         activeColumns.add(column);
       }
     }
@@ -103,15 +197,32 @@ public class WhitePaperSpatialPooler extends SpatialPooler {
   }
 
 
-  public void phaseThree(List<Column> activeColumns, double inhibitionRadius) {
+  public void phaseThree(final List<Column> activeColumns, double inhibitionRadius) {
     // Phase 3: Update synapse permanence and internal variables
     if (isLearningMode()) {
-      for (Column activeColumn : activeColumns) {
-        learnSpatialForActiveForColumn(activeColumn);
-      }
-      for (Column column : layer.getElementsList()) {
-        boostWeakForColumn(column, inhibitionRadius);
+      //columns learn and boost only their own synapses, input activity is read once for all of them
+      inputActivity = layer.getInputSpace().getInputActivity(inputActivity);
+      executor.execute(activeColumns.size(), new ColumnRangeExecutor.RangeTask() {
+        @Override public void run(int from, int to) {
+          for (int i = from; i < to; i++) {
+            learnSpatialForActiveForColumn(activeColumns.get(i), inputActivity);
+          }
+        }
+      });
+      //active duty cycles don't change while boosting, so neighbors max is taken for all columns at once
+      final List<Column> columns = layer.getElementsList();
+      if (maxDutyCycles.length != columns.size()) {
+        maxDutyCycles = new double[columns.size()];
       }
+      layer.getNeighborsMaxDutyCycles(inhibitionRadius, maxDutyCycles);
+      executor.execute(columns.size(), new ColumnRangeExecutor.RangeTask() {
+        @Override public void run(int from, int to) {
+          for (int i = from; i < to; i++) {
+            Column column = columns.get(i);
+            boostWeakForColumnByMaxDutyCycle(column, maxDutyCycles[column.getIndex()]);
+          }
+        }
+      });
     }
   }
 
@@ -127,7 +238,14 @@ public class WhitePaperSpatialPooler extends SpatialPooler {
    * @return
    */
   public double computeOverlapForColumn(Column currentColumn) {
-    double currentOverLap = currentColumn.getActiveConnectedSynapses().size();
+    return computeOverlapForColumn(currentColumn, currentColumn.getActiveConnectedSynapsesCount());
+  }
+
+  /**
+   * @param activeConnectedSynapsesCount number of connected synapses with active inputs
+   */
+  public double computeOverlapForColumn(Column currentColumn, int activeConnectedSynapsesCount) {
+    double currentOverLap = activeConnectedSynapsesCount;
     if (currentOverLap < this.getMinimalOverlap()) {
       currentOverLap = 0;
     } else {
@@ -152,7 +270,26 @@ public class WhitePaperSpatialPooler extends SpatialPooler {
    */
 
   public boolean computeActiveDoInhibitionForColumn(Column currentColumn, double inhibitionRadius) {
-    double minLocalActivity = kthScore(currentColumn.getNeighbors(inhibitionRadius), this.getDesiredLocalActivity());
+    int maxNeighborsCount = layer.getMaxNeighborsCount(inhibitionRadius);
+    return computeActiveDoInhibitionForColumn(currentColumn, inhibitionRadius, new int[maxNeighborsCount],
+                                              new double[maxNeighborsCount]);
+  }
+
+  /**
+   * @param neighborIndexes  scratch buffer, not shorter than layer.getMaxNeighborsCount(inhibitionRadius)
+   * @param neighborOverlaps scratch buffer of the same length
+   */
+  private boolean computeActiveDoInhibitionForColumn(Column currentColumn, double inhibitionRadius,
+                                                     int[] neighborIndexes, double[] neighborOverlaps) {
+    int neighborsCount = layer.getNeighborIndexes(currentColumn, inhibitionRadius, neighborIndexes);
+    for (int i = 0; i < neighborsCount; i++) {
+      neighborOverlaps[i] = layer.getElementByIndex(neighborIndexes[i]).getOverlap();
+    }
+    double minLocalActivity = kthScore(neighborOverlaps, neighborsCount, this.getDesiredLocalActivity());
+    return activateByMinLocalActivity(currentColumn, minLocalActivity);
+  }
+
+  private boolean activateByMinLocalActivity(Column currentColumn, double minLocalActivity) {
     currentColumn.setActive(currentColumn.getOverlap() > 0 && currentColumn.getOverlap() >= minLocalActivity);
     return currentColumn.isActive();
   }
@@ -169,17 +306,13 @@ public class WhitePaperSpatialPooler extends SpatialPooler {
    */
 
   public void learnSpatialForActiveForColumn(Column currentColumn) {
+    learnSpatialForActiveForColumn(currentColumn, layer.getInputSpace().getInputActivity(null));
+  }
+
+  private void learnSpatialForActiveForColumn(Column currentColumn, double[] inputActivity) {
     if (currentColumn.isActive()) {
-      List<Synapse.ProximalSynapse> potentialSynapses = currentColumn.getPotentialSynapses();
-      for (Synapse.ProximalSynapse potentialSynapse : potentialSynapses) {
-        if (potentialSynapse.getConnectedSensoryInput().getValue()) {
-          potentialSynapse.setPermanence(
-                  potentialSynapse.getPermanence() + Synapse.ProximalSynapse.PERMANENCE_INCREASE);
-        } else {
-          potentialSynapse.setPermanence(
-                  potentialSynapse.getPermanence() - Synapse.ProximalSynapse.PERMANENCE_DECREASE);
-        }
-      }
+      currentColumn.adaptPermanences(inputActivity, Synapse.ProximalSynapse.PERMANENCE_INCREASE,
+                                     Synapse.ProximalSynapse.PERMANENCE_DECREASE);
     }
   }
 
@@ -191,7 +324,11 @@ public class WhitePaperSpatialPooler extends SpatialPooler {
    * @param inhibitionRadius
    */
   public void boostWeakForColumn(Column currentColumn, double inhibitionRadius) {
-    double minDutyCycle = 0.01 * currentColumn.getMaxDutyCycle(inhibitionRadius);
+    boostWeakForColumnByMaxDutyCycle(currentColumn, currentColumn.getMaxDutyCycle(inhibitionRadius));
+  }
+
+  private void boostWeakForColumnByMaxDutyCycle(Column currentColumn, double maxDutyCycle) {
+    double minDutyCycle = 0.01 * maxDutyCycle;
     currentColumn.updateBoost(minDutyCycle, this.getBoostRate());
     if (currentColumn.getOverlapDutyCycle() < minDutyCycle) {
       currentColumn.increasePermanence(0.1 * Synapse.ProximalSynapse.CONNECTED_PERMANENCE);
@@ -203,13 +340,14 @@ public class WhitePaperSpatialPooler extends SpatialPooler {
    * WP
    * kthScore(cols, k)
    * Given the list of columns, return the k'th highest overlap value.
+   *
+   * @param overlaps overlaps of columns, first count of them get partially reordered
    */
-  private double kthScore(List<Column> neighbors, int desiredLocalActivity) {
-    Collections.sort(neighbors, OVERLAP_COMPARATOR);
-    if (desiredLocalActivity > neighbors.size()) {
-      desiredLocalActivity = neighbors.size();
+  private double kthScore(double[] overlaps, int count, int desiredLocalActivity) {
+    if (desiredLocalActivity > count) {
+      desiredLocalActivity = count;
     }
-    return neighbors.get(desiredLocalActivity - 1).getOverlap();
+    return MathUtils.kthLargest(overlaps, count, desiredLocalActivity);
 
   }
 
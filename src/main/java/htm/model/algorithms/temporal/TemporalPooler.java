@@ -9,14 +9,21 @@
 package htm.model.algorithms.temporal;
 
 import htm.model.Cell;
+import htm.model.Column;
 import htm.model.DistalDendriteSegment;
 
+import java.util.BitSet;
+import java.util.List;
+
 public abstract class TemporalPooler extends htm.model.algorithms.Pooler {
 
   private final int newSynapseCount;
   private final int activationThreshold;
   private final int minThreshold;
 
+  //active columns by column index handed over by pipelined runner, columns active state is used if not set
+  private BitSet activeColumns;
+
   protected TemporalPooler(Config cfg) {
     this.newSynapseCount = cfg.getNewSynapseCount();
     this.activationThreshold = cfg.getActivationThreshold();
@@ -54,6 +61,28 @@ public abstract class TemporalPooler extends htm.model.algorithms.Pooler {
   }
 
 
+  public BitSet getActiveColumns() {
+    return activeColumns;
+  }
+
+  /**
+   * Active columns to run on instead of columns active state, spatial pooler may already work on the next input
+   *
+   * @param activeColumns bitset by column index or null to use columns active state
+   */
+  public void setActiveColumns(BitSet activeColumns) {
+    this.activeColumns = activeColumns;
+  }
+
+  /**
+   * WP
+   * activeColumns(t)
+   * Column is a winner due to bottom-up input, the output of the spatial pooler the temporal pooler runs on
+   */
+  public boolean isColumnActive(Column column) {
+    return activeColumns == null ? column.isActive() : activeColumns.get(column.getIndex());
+  }
+
   /**
    * WP
    * segmentActive(s, t, state)
@@ -62,7 +91,73 @@ public abstract class TemporalPooler extends htm.model.algorithms.Pooler {
    * state at time t is greater than activationThreshold. The parameter state can be activeState, or learnState.
    */
   public boolean segmentActive(DistalDendriteSegment segment, int time, Cell.State state) {
-    return segment.getConnectedWithStateCell(time, state).size() > activationThreshold;
+    return segment.getConnectedWithStateCellCount(time, state) > activationThreshold;
+  }
+
+
+  /**
+   * WP
+   * <p/>
+   * getActiveSegment(c, i, t, state)
+   * <p/>
+   * For the given column c cell i, return a segment index such that segmentActive(s,t, state) is true.
+   * If multiple segments are active, sequence segments are given preference.
+   * Otherwise, segments with most activity are given preference.
+   * <p/>
+   * Single pass over cell segments, of equally preferred segments the last one is returned.
+   *
+   * @return active segment or null if there is none
+   */
+  public DistalDendriteSegment getActiveSegment(Cell cell, int time, Cell.State state) {
+    DistalDendriteSegment result = null;
+    int resultCount = 0;
+    for (DistalDendriteSegment segment : cell.getElementsList()) {
+      if (!segmentActive(segment, time, state)) {
+        continue;
+      }
+      int count = segment.getConnectedWithStateCellCount(time, state);
+      if (result == null || (segment.isSequenceSegment() && !result.isSequenceSegment())
+          || (segment.isSequenceSegment() == result.isSequenceSegment() && count >= resultCount)) {
+        result = segment;
+        resultCount = count;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * WP
+   * <p/>
+   * getBestMatchingSegment(c, i, t)
+   * <p/>
+   * For the given column c cell i at time t, find the segment with the largest number of active synapses.
+   * This routine is aggressive in finding the best match. The permanence value of synapses is allowed to be
+   * below connectedPerm. The number of active synapses is allowed to be below activationThreshold,
+   * but must be above minThreshold. The routine returns the segment index. If no segments are found, then an index of -1 is returned.
+   *
+   * @return best matching segment or null if there is none
+   */
+  public DistalDendriteSegment getBestMatchingSegment(Cell cell, int time) {
+    return getBestMatchingSegment(cell.getElementsList(), time);
+  }
+
+  /**
+   * Segment of the list with the largest number of active synapses at time, which must be above minThreshold.
+   * Single pass, of segments with equal number of active synapses the last one is returned.
+   *
+   * @return best matching segment or null if there is none
+   */
+  public DistalDendriteSegment getBestMatchingSegment(List<? extends DistalDendriteSegment> segments, int time) {
+    DistalDendriteSegment result = null;
+    int resultCount = 0;
+    for (DistalDendriteSegment segment : segments) {
+      int count = segment.getActiveCellSynapsesCount(time);
+      if (result == null || count >= resultCount) {
+        result = segment;
+        resultCount = count;
+      }
+    }
+    return result != null && resultCount > minThreshold ? result : null;
   }
 
 
@@ -1,7 +1,7 @@
 package htm.model.algorithms.temporal;
 
 import htm.model.*;
-import htm.utils.CollectionUtils;
+import htm.model.algorithms.ColumnRangeExecutor;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -61,35 +61,55 @@ public class WhitePaperTemporalPooler extends TemporalPooler {
 
   public void phaseOne() {
     //Phase 1:Compute the active state, activeState(t), for each cell.
-    List<Column> activeColumns = layer.getActiveColumns();
-    for (Column activeColumn : activeColumns) {
-      computeCellsActiveStateForColumn(activeColumn);
-    }
+    //Columns only read other cells states before, cells states of column ranges don't share bitset words
+    final List<Column> columns = layer.getElementsList();
+    executor.execute(columns.size(), new ColumnRangeExecutor.RangeTask() {
+      @Override public void run(int from, int to) {
+        for (int i = from; i < to; i++) {
+          Column column = columns.get(i);
+          if (isColumnActive(column)) {
+            computeCellsActiveStateForColumn(column);
+          }
+        }
+      }
+    });
   }
 
   public void phaseTwo() {
     //Phase 2:Compute the predicted state, predictiveState(t), for each cell.
-    for (Column column : layer.getElementsList()) {
-      computeCellsPredictiveStateForColumn(column);
-    }
+    //Only active and learning cells walk their outgoing synapses to count segments activity
+    layer.propagateDistalActivity();
+    //Columns only read other cells states and write own cells predictions and updates
+    final List<Column> columns = layer.getElementsList();
+    executor.execute(columns.size(), new ColumnRangeExecutor.RangeTask() {
+      @Override public void run(int from, int to) {
+        for (int i = from; i < to; i++) {
+          computeCellsPredictiveStateForColumn(columns.get(i));
+        }
+      }
+    });
   }
 
 
   public void phaseThree() {
     //Phase 3:Run synapses updates accumulated in previous steps
     if (isLearningMode()) {
-      for (Column column : layer.getElementsList()) {
-        updateDistalSynapsesForColumn(column);
-      }
+      //Cells adapt only their own segments
+      final List<Column> columns = layer.getElementsList();
+      executor.execute(columns.size(), new ColumnRangeExecutor.RangeTask() {
+        @Override public void run(int from, int to) {
+          for (int i = from; i < to; i++) {
+            updateDistalSynapsesForColumn(columns.get(i));
+          }
+        }
+      });
     }
   }
 
 
   /*Reset cells*/
   public void nextTimeStep() {
-    for (Column column : layer.getElementsList()) {
-      column.nextTimeStep();
-    }
+    layer.nextTimeStep();
   }
 
   /**
@@ -107,7 +127,7 @@ public class WhitePaperTemporalPooler extends TemporalPooler {
    * learning cell (lines 36-41) and a new segment is added to that cell.
    */
   public void computeCellsActiveStateForColumn(Column currentColumn) {
-    if (!currentColumn.isActive()) {
+    if (!isColumnActive(currentColumn)) {
       throw new RuntimeException("Column should be active");
     }
     boolean buPredicted = false, lcChosen = false;
@@ -160,6 +180,7 @@ public class WhitePaperTemporalPooler extends TemporalPooler {
     for (Cell cell : currentColumn.getElementsList()) {
       for (DistalDendriteSegment segment : cell.getSegments()) {
         if (segmentActive(segment, Cell.NOW, Cell.State.ACTIVE)) {
+          segment.markActive();
           //By Kirill - if segment is seq it also should be in learning state to predict
           if (segment.isSequenceSegment() && !segmentActive(segment, Cell.NOW, Cell.State.LEARN)) {
             continue;
@@ -212,46 +233,6 @@ public class WhitePaperTemporalPooler extends TemporalPooler {
     }
   }
 
-  /**
-   * WP
-   * <p/>
-   * getActiveSegment(c, i, t, state)
-   * <p/>
-   * For the given column c cell i, return a segment index such that segmentActive(s,t, state) is true.
-   * If multiple segments are active, sequence segments are given preference.
-   * Otherwise, segments with most activity are given preference.
-   */
-
-  public DistalDendriteSegment getActiveSegment(Cell cell, final int time, final Cell.State state) {
-    List<DistalDendriteSegment> activeSegments =
-            CollectionUtils.filter(cell.getElementsList(), new CollectionUtils.Predicate<DistalDendriteSegment>() {
-              @Override
-              public boolean apply(
-                      DistalDendriteSegment segment) {
-                return segmentActive(segment, time, state);
-              }
-            });
-    Collections.sort(activeSegments, new Comparator<DistalDendriteSegment>() {
-      @Override
-      public int compare(DistalDendriteSegment segment, DistalDendriteSegment segmentToCompare) {
-        int amountActiveCells = segment.getConnectedWithStateCell(time, state).size();
-        int amountActiveCellsToCompare = segmentToCompare.getConnectedWithStateCell(time, state).size();
-        if (segment.isSequenceSegment() == segmentToCompare.isSequenceSegment()
-            && amountActiveCells == amountActiveCellsToCompare) {
-          return 0;
-        } else if ((segment.isSequenceSegment() && !segmentToCompare.isSequenceSegment())
-                   || (segment.isSequenceSegment() == segmentToCompare.isSequenceSegment()
-                       && amountActiveCells > amountActiveCellsToCompare)) {
-          return 1;
-        } else {
-          return -1;
-        }
-      }
-    });
-    return activeSegments.size() > 0 ? activeSegments.get(activeSegments.size() - 1) : null;
-  }
-
-
   /**
    * WP
    * <p/>
@@ -264,12 +245,8 @@ public class WhitePaperTemporalPooler extends TemporalPooler {
    */
 
   protected BestMatchingCellAndSegment getBestMatchingCell(Column currentColumn, int time) {
-    List<DistalDendriteSegment> bestMatchingSegmentsFromCells = new ArrayList<DistalDendriteSegment>();
-    for (Cell cell : currentColumn.getElementsList()) {
-      if (cell.getSegments().size() == 0) {
-        break;
-      }
-    }
+    DistalDendriteSegment columnBestMatchingSegment = null;
+    int columnBestMatchingCount = 0;
     Cell minSegmentListCell = currentColumn.getElementsList().get(0);
     for (Cell cell : currentColumn.getElementsList()) {
       //By Kirill
@@ -287,56 +264,22 @@ public class WhitePaperTemporalPooler extends TemporalPooler {
       if (cell.getSegments().size() < minSegmentListCell.getSegments().size()) {
         minSegmentListCell = cell;
       }
+      //Best of cells best matching segments, ties go to the later cell
       DistalDendriteSegment bestMatchingSegment = getBestMatchingSegment(cell, time);
       if (bestMatchingSegment != null) {
-        bestMatchingSegmentsFromCells.add(bestMatchingSegment);
+        int count = bestMatchingSegment.getActiveCellSynapsesCount(time);
+        if (columnBestMatchingSegment == null || count >= columnBestMatchingCount) {
+          columnBestMatchingSegment = bestMatchingSegment;
+          columnBestMatchingCount = count;
+        }
       }
     }
-    DistalDendriteSegment columnBestMatchingSegment = getBestMatchingSegment(bestMatchingSegmentsFromCells,
-                                                                             time);
 
     return new WhitePaperTemporalPooler.BestMatchingCellAndSegment(
             columnBestMatchingSegment != null ? columnBestMatchingSegment.getOwner() : minSegmentListCell,
             columnBestMatchingSegment);
   }
 
-  /**
-   * WP
-   * <p/>
-   * getBestMatchingSegment(c, i, t)
-   * <p/>
-   * For the given column c cell i at time t, find the segment with the largest number of active synapses.
-   * This routine is aggressive in finding the best match. The permanence value of synapses is allowed to be
-   * below connectedPerm. The number of active synapses is allowed to be below activationThreshold,
-   * but must be above minThreshold. The routine returns the segment index. If no segments are found, then an index of -1 is returned.
-   *
-   * @param time
-   * @return
-   */
-  public DistalDendriteSegment getBestMatchingSegment(Cell currentCell, final int time) {
-    return getBestMatchingSegment(new ArrayList<DistalDendriteSegment>(currentCell.getElements()), time);
-  }
-
-  public DistalDendriteSegment getBestMatchingSegment(List<DistalDendriteSegment> segmentList, final int time) {
-
-    Collections.sort(segmentList, new Comparator<DistalDendriteSegment>() {
-      @Override
-      public int compare(DistalDendriteSegment segment, DistalDendriteSegment segmentToCompare) {
-        int amountActiveCells = segment.getActiveCellSynapses(time).size();
-        int amountActiveCellsToCompare = segmentToCompare.getActiveCellSynapses(time).size();
-        if (amountActiveCells == amountActiveCellsToCompare) {
-          return 0;
-        } else if (amountActiveCells > amountActiveCellsToCompare) {
-          return 1;
-        } else {
-          return -1;
-        }
-      }
-    });
-    return segmentList.size() > 0 && segmentList.get(segmentList.size() - 1).getActiveCellSynapses(
-            time).size() > this.getMinThreshold() ? segmentList.get(segmentList.size() - 1) : null;
-  }
-
 
   /**
    * If the segment is NULL, then a new segment is to be added, otherwise
@@ -369,34 +312,28 @@ public class WhitePaperTemporalPooler extends TemporalPooler {
     }
     int numberOfNewSynapsesToAdd = this.getNewSynapseCount() - result.getElementsList().size();
     if (newSynapses && numberOfNewSynapsesToAdd > 0) {
-      List<Column> neighbors = currentCell.getNeighborsAndMyColumn();
-      List<Cell> cellWithLearnStateList = new ArrayList<Cell>();
-      //TODO Refac
-
-      for (Column neighborColumn : neighbors) {
-        List<Cell> cellList = neighborColumn.getElements();
-        for (Cell cell : cellList) {
-            /*NOTE: There is no indication in the Numenta pseudocode that a cell shouldn't be able to have a
-            *distal synapse from another cell in the same column. Therefore the below check is commented out.
-            * Skip cells in our own col (don't connect to ourself)
-            * */
-          //if (cell.belongsToColumn == this.belongsToColumn) {
-          //  continue;
-          // }
-           /*But avoid self reverence*/
-          if (cell == currentCell) {
-            continue;
-          }
-          if (cell.getLearnState(time)) {
-            cellWithLearnStateList.add(cell);
-          }
+      /*NOTE: There is no indication in the Numenta pseudocode that a cell shouldn't be able to have a
+      *distal synapse from another cell in the same column. Therefore cells of own column are candidates too.
+      * */
+      Layer.LearningCellIndex learningCells = layer.getLearningCellIndex(time);
+      int[] candidates = new int[learningCells.size()];
+      int candidatesCount = learningCells.getCellsWithinRadius(currentCell.getOwner().getPosition(),
+                                                               layer.getLearningRadius(), candidates);
+      /*But avoid self reverence*/
+      for (int i = 0; i < candidatesCount; i++) {
+        if (candidates[i] == currentCell.getLayerIndex()) {
+          candidates[i] = candidates[--candidatesCount];
+          break;
         }
       }
-      Collections.shuffle(cellWithLearnStateList);
-      numberOfNewSynapsesToAdd = cellWithLearnStateList.size() < numberOfNewSynapsesToAdd ? cellWithLearnStateList.size() : numberOfNewSynapsesToAdd;
+      numberOfNewSynapsesToAdd = Math.min(candidatesCount, numberOfNewSynapsesToAdd);
+      //Partial Fisher-Yates shuffle, only as many candidates as needed are drawn
+      Random random = currentCell.getRandom();
       for (int i = 0; i < numberOfNewSynapsesToAdd; i++) {
-        Cell cellWithLearnState = cellWithLearnStateList.get(i);
-        result.addElement(new Synapse.DistalSynapse(cellWithLearnState));
+        int j = i + random.nextInt(candidatesCount - i);
+        int cellWithLearnState = candidates[j];
+        candidates[j] = candidates[i];
+        result.addElement(new Synapse.DistalSynapse(layer.getCellByLayerIndex(cellWithLearnState)));
       }
     }
     currentCell.fireUpdatesChange();
@@ -415,17 +352,26 @@ public class WhitePaperTemporalPooler extends TemporalPooler {
    * get their permanence counts decremented by permanenceDec. If positiveReinforcement
    * is false, then synapses on the active list get their permanence counts decremented by permanenceDec.
    * After this step, any synapses in segmentUpdate that do yet exist get added with a permanence count of initialPerm.
+   * <p/>
+   * Synapses which permanence dropped to 0 are removed and segments left without synapses are deleted.
+   * Segments keep at most Cell.AMOUNT_OF_SYNAPSES synapses and cells at most Cell.MAX_SEGMENTS segments,
+   * the weakest synapses and the least recently active segments are removed to make room for new ones.
    */
   public void adaptSegments(Cell currentCell, boolean positiveReinforcement) {
     for (DistalDendriteSegment.Update segmentUpdate : currentCell.getSegmentUpdates()) {
       DistalDendriteSegment segment;
       //Only create new segment if there are synapses and reinforcement is positive
       if (segmentUpdate.isNewSegment() && segmentUpdate.size() > 0 && positiveReinforcement) {
+        currentCell.makeRoomForSegment();
         segment = new DistalDendriteSegment(currentCell, segmentUpdate.getPredictedBy());
       } else {
         segment = segmentUpdate.getTarget();
       }
-      if (segment != null) {
+      //Target segment may have been deleted since the update was queued
+      if (segment != null && !segment.isDetached()) {
+        if (positiveReinforcement) {
+          segment.markActive();
+        }
         for (Synapse.DistalSynapse distalSynapse : segment.getElementsList()) {
           if (positiveReinforcement) {
             if (segmentUpdate.contains(distalSynapse)) {
@@ -433,18 +379,7 @@ public class WhitePaperTemporalPooler extends TemporalPooler {
             } else {
               //distalSynapse.setPermanence(distalSynapse.getPermanence() - Synapse.DistalSynapse.PERMANENCE_DECREASE);
               //By Kirill - only decrease permanence if no column shared
-              List<Cell> columnCells = distalSynapse.getFromCell().getOwner().getElements();
-              boolean keep = false;
-              for (Cell columnCell : columnCells) {
-                for (Synapse.DistalSynapse synapse : segmentUpdate.getElementsList()) {
-                  if (synapse.getFromCell() == columnCell) {
-                    keep = true;
-                    break;
-                  }
-                }
-                if (keep) break;
-              }
-              if (!keep) {
+              if (!segmentUpdate.touchesColumn(distalSynapse.getFromCell().getOwner().getIndex())) {
                 distalSynapse.setPermanence(distalSynapse.getPermanence() - Synapse.DistalSynapse.PERMANENCE_DECREASE);
               }
             }
@@ -454,15 +389,33 @@ public class WhitePaperTemporalPooler extends TemporalPooler {
             }
           }
         }
+        segment.removeDeadSynapses();
+        int newSynapses = 0;
         for (Synapse.DistalSynapse distalSynapse : segmentUpdate.getElementsList()) {
-          if (!segment.contains(distalSynapse)) {
+          if (distalSynapse.getPermanence() > 0 && !segment.hasSynapseFrom(distalSynapse.getFromCell())) {
+            newSynapses++;
+          }
+        }
+        int excess = segment.size() + newSynapses - Cell.AMOUNT_OF_SYNAPSES;
+        if (excess > 0) {
+          segment.removeWeakestSynapses(excess, segmentUpdate);
+        }
+        //Synapses from cells segment is already connected to are refused by the segment
+        for (Synapse.DistalSynapse distalSynapse : segmentUpdate.getElementsList()) {
+          if (segment.size() >= Cell.AMOUNT_OF_SYNAPSES) {
+            break;
+          }
+          if (distalSynapse.getPermanence() > 0) {
             segment.addElement(distalSynapse);
           }
         }
+        if (segment.size() == 0) {
+          currentCell.deleteSegment(segment);
+        }
       }
     }
     //Clear segmentUpdates after adaption;
-    currentCell.getSegmentUpdates().clear();
+    currentCell.clearSegmentUpdates();
     currentCell.fireUpdatesChange();
     //fireSegmentsChange();
   }
@@ -491,6 +444,10 @@ public class WhitePaperTemporalPooler extends TemporalPooler {
         for (Synapse.DistalSynapse distalSynapse : update.getElementsList()) {
           distalSynapse.setPermanence(distalSynapse.getPermanence() - 4 * Synapse.DistalSynapse.PERMANENCE_DECREASE);
         }
+        DistalDendriteSegment target = update.getTarget();
+        if (target != null && !target.isDetached() && target.removeDeadSynapses() > 0 && target.size() == 0) {
+          currentCell.deleteSegment(target);
+        }
         iter.remove();
       }
     }
@@ -9,12 +9,14 @@
 package htm.model.space;
 
 
-import htm.utils.CollectionUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.awt.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 
 public abstract class BaseSpace<P, E extends Element<?, ?>> extends htm.model.fractal.Composite<P, E> {
@@ -23,6 +25,19 @@ public abstract class BaseSpace<P, E extends Element<?, ?>> extends htm.model.fr
 
   private final Dimension dimension;
 
+  //max number of radius stencils kept for radius queries
+  private static final int MAX_RADIUS_STENCILS = 64;
+
+  /**
+   * Radius stencils by radius, stencil[dy] is the max |dx| so dx^2 + dy^2 <= radius^2.
+   * Least recently used stencils are evicted.
+   */
+  private final Map<Double, int[]> radiusStencils = new LinkedHashMap<Double, int[]>(16, 0.75f, true) {
+    @Override protected boolean removeEldestEntry(Map.Entry<Double, int[]> eldest) {
+      return size() > MAX_RADIUS_STENCILS;
+    }
+  };
+
 
   protected BaseSpace(int xSize, int ySize) {
     this.dimension = new Dimension(xSize, ySize);
@@ -53,24 +68,99 @@ public abstract class BaseSpace<P, E extends Element<?, ?>> extends htm.model.fr
 
   protected abstract E createElement(int index, Point position);
 
+  /**
+   * Elements are laid out row by row, so element index is y * width + x
+   */
   public E getElementByPosition(Point position) {
-    for (E element : elementList) {
-      if (element.getPosition().x == position.x && element.getPosition().y == position.y) {
-        return element;
-      }
+    if (position.x < 0 || position.x >= dimension.width || position.y < 0 || position.y >= dimension.height) {
+      throw new IllegalArgumentException("There in no element by this position" + position);
     }
-    throw new IllegalArgumentException("There in no element by this position" + position);
+    return elementList.get(position.y * dimension.width + position.x);
   }
 
 
+  /**
+   * Elements within radius from center in index order. Only the bounding box of the circle is enumerated
+   * using the radius stencil.
+   */
   public List<E> getAllWithinRadius(final Point center, final double radius) {
-    CollectionUtils.Predicate<E> withinRadius = new CollectionUtils.Predicate<E>() {
-      @Override public boolean apply(E element) {
-        return Math.pow(center.x - element.getPosition().x, 2) + Math.pow(center.y - element.getPosition().y,
-                                                                          2) <= Math.pow(radius, 2);
+    List<E> result = new ArrayList<E>();
+    int[] stencil = getRadiusStencil(Math.abs(radius));
+    int dyMax = stencil.length - 1;
+    int yFrom = Math.max(center.y - dyMax, 0), yTo = Math.min(center.y + dyMax, dimension.height - 1);
+    for (int y = yFrom; y <= yTo; y++) {
+      int span = stencil[Math.abs(y - center.y)];
+      int xFrom = Math.max(center.x - span, 0), xTo = Math.min(center.x + span, dimension.width - 1);
+      int rowStart = y * dimension.width;
+      for (int x = xFrom; x <= xTo; x++) {
+        result.add(elementList.get(rowStart + x));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Allocation free version of getAllWithinRadius. Fills indexes with indexes of elements within radius from center
+   * in index order.
+   *
+   * @param indexes buffer, not shorter than getMaxWithinRadiusCount(radius)
+   * @return amount of filled indexes
+   */
+  public int getIndexesWithinRadius(Point center, double radius, int[] indexes) {
+    int[] stencil = getRadiusStencil(Math.abs(radius));
+    int dyMax = stencil.length - 1, count = 0;
+    int yFrom = Math.max(center.y - dyMax, 0), yTo = Math.min(center.y + dyMax, dimension.height - 1);
+    for (int y = yFrom; y <= yTo; y++) {
+      int span = stencil[Math.abs(y - center.y)];
+      int xFrom = Math.max(center.x - span, 0), xTo = Math.min(center.x + span, dimension.width - 1);
+      int rowStart = y * dimension.width;
+      for (int x = xFrom; x <= xTo; x++) {
+        indexes[count++] = rowStart + x;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Max amount of elements within radius from any center
+   */
+  public int getMaxWithinRadiusCount(double radius) {
+    int[] stencil = getRadiusStencil(Math.abs(radius));
+    int result = 0;
+    for (int dy = -(stencil.length - 1); dy < stencil.length; dy++) {
+      result += Math.min(2 * stencil[Math.abs(dy)] + 1, dimension.width);
+    }
+    return Math.min(result, dimension.width * dimension.height);
+  }
+
+  protected int[] getRadiusStencil(double radius) {
+    synchronized (radiusStencils) {
+      int[] result = radiusStencils.get(radius);
+      if (result == null) {
+        result = createRadiusStencil(radius);
+        radiusStencils.put(radius, result);
       }
-    };
-    return CollectionUtils.filter(elementList, withinRadius);
+      return result;
+    }
+  }
+
+  //offsets beyond the long side are out of space anyway
+  private int[] createRadiusStencil(double radius) {
+    double radiusSquare = radius * radius;
+    int limit = getLongSide();
+    int dyMax = (int)Math.min(Math.floor(radius) + 1, limit);
+    while (dyMax > 0 && (double)dyMax * dyMax > radiusSquare) {
+      dyMax--;
+    }
+    int[] result = new int[dyMax + 1];
+    int dx = dyMax;
+    for (int dy = 0; dy <= dyMax; dy++) {
+      while ((double)dx * dx + (double)dy * dy > radiusSquare) {
+        dx--;
+      }
+      result[dy] = dx;
+    }
+    return result;
   }
 
   public Dimension getDimension() {
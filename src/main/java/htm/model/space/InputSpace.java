@@ -10,17 +10,35 @@ package htm.model.space;
 
 
 import java.awt.*;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.NoSuchElementException;
 
 public class InputSpace extends BaseSpace<InputSpace, InputSpace.Input> {
+  private static final int[] EMPTY_INDEXES = new int[0];
+  //input values by input index
+  private final BitSet values = new BitSet();
+  /**
+   * Inverted index, proximal synapse store indexes of synapses sampling the input by input index.
+   * Lets overlap be computed by walking active inputs only.
+   */
+  private final int[][] proximalSynapses;
+  private final int[] proximalSynapsesCounts;
+  //set when proximal synapse is added or changes connected state, idempotent so concurrent writers are safe
+  private volatile boolean proximalConnectionsChanged = true;
+
   public InputSpace(int xSize, int ySize) {
     super(xSize, ySize);
+    proximalSynapses = new int[xSize * ySize][];
+    proximalSynapsesCounts = new int[xSize * ySize];
     initElementSpace();
   }
 
   public InputSpace(Dimension dimension) {
     super(dimension);
+    proximalSynapses = new int[dimension.width * dimension.height][];
+    proximalSynapsesCounts = new int[dimension.width * dimension.height];
     initElementSpace();
   }
 
@@ -32,24 +50,99 @@ public class InputSpace extends BaseSpace<InputSpace, InputSpace.Input> {
 
 
   public void setInputValue(int index, boolean value) {
-    this.getElementByIndex(index).setValue(value);
+    values.set(index, value);
   }
 
   public boolean getInputValue(int index) {
-    return this.getElementByIndex(index).getValue();
+    return values.get(index);
+  }
+
+  /**
+   * Index of the next active input, starting from fromIndex inclusive
+   *
+   * @return input index or -1 if there is no such input
+   */
+  public int nextActiveInput(int fromIndex) {
+    return values.nextSetBit(fromIndex);
+  }
+
+  /**
+   * Copy of all input values by input index
+   */
+  public BitSet getValues() {
+    return (BitSet)values.clone();
+  }
+
+  /**
+   * Input values by input index as 1 for active and 0 for inactive inputs, for branch free learning loops
+   *
+   * @param result array to fill, new one is created if it is null or of another length
+   */
+  public double[] getInputActivity(double[] result) {
+    int inputsNumber = proximalSynapsesCounts.length;
+    if (result == null || result.length != inputsNumber) {
+      result = new double[inputsNumber];
+    } else {
+      Arrays.fill(result, 0);
+    }
+    for (int i = values.nextSetBit(0); i != -1 && i < inputsNumber; i = values.nextSetBit(i + 1)) {
+      result[i] = 1;
+    }
+    return result;
+  }
+
+  public boolean isProximalConnectionsChanged() {
+    return proximalConnectionsChanged;
+  }
+
+  public void setProximalConnectionsChanged(boolean proximalConnectionsChanged) {
+    this.proximalConnectionsChanged = proximalConnectionsChanged;
+  }
+
+  /**
+   * @param storeIndex index of the synapse in the layer proximal synapse store
+   */
+  public void addProximalSynapse(int inputIndex, int storeIndex) {
+    int[] inputSynapses = proximalSynapses[inputIndex];
+    int count = proximalSynapsesCounts[inputIndex];
+    if (inputSynapses == null) {
+      inputSynapses = new int[4];
+      proximalSynapses[inputIndex] = inputSynapses;
+    } else if (count == inputSynapses.length) {
+      inputSynapses = Arrays.copyOf(inputSynapses, count * 2);
+      proximalSynapses[inputIndex] = inputSynapses;
+    }
+    inputSynapses[count] = storeIndex;
+    proximalSynapsesCounts[inputIndex] = count + 1;
+    proximalConnectionsChanged = true;
+  }
+
+  /**
+   * Number of proximal synapses of all columns that sample the input
+   */
+  public int getProximalSynapsesCount(int inputIndex) {
+    return proximalSynapsesCounts[inputIndex];
+  }
+
+  /**
+   * Store indexes of proximal synapses that sample the input, first getProximalSynapsesCount(inputIndex) of them
+   * are valid. The array is shared, don't modify it.
+   */
+  public int[] getProximalSynapses(int inputIndex) {
+    int[] result = proximalSynapses[inputIndex];
+    return result == null ? EMPTY_INDEXES : result;
   }
 
 
   public static class Input extends Element<InputSpace, Input> {
-    private boolean value;
 
     public Input(InputSpace space, Point position, int index, boolean value) {
       super(space, position, index);
-      this.value = value;
+      setValue(value);
     }
 
     public boolean getValue() {
-      return value;
+      return owner.values.get(getIndex());
     }
 
     @Override public boolean addAll(List<Input> all) {
@@ -69,7 +162,7 @@ public class InputSpace extends BaseSpace<InputSpace, InputSpace.Input> {
     }
 
     public void setValue(boolean sourceInput) {
-      this.value = sourceInput;
+      owner.values.set(getIndex(), sourceInput);
     }
   }
 }
@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) 2011, Peace Technology, Inc.
+ * $Author:$
+ * $Revision:$
+ * $Date:$
+ * $NoKeywords$
+ */
+
+package htm.utils;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing map from non negative int keys to values, with linear probing and no boxing.
+ * Meant for small maps keyed by element indexes, e.g. synapses by presynaptic cell index.
+ */
+public class IntObjectMap<V> {
+  private static final int FREE = -1;
+  private static final int MIN_CAPACITY = 8;
+
+  private int[] keys;
+  private Object[] values;
+  private int size;
+
+  public IntObjectMap() {
+    this(MIN_CAPACITY / 2);
+  }
+
+  public IntObjectMap(int expectedSize) {
+    int capacity = MIN_CAPACITY;
+    while (capacity < expectedSize * 2) {
+      capacity <<= 1;
+    }
+    allocate(capacity);
+  }
+
+  private void allocate(int capacity) {
+    keys = new int[capacity];
+    Arrays.fill(keys, FREE);
+    values = new Object[capacity];
+  }
+
+  static int slotOf(int key, int mask) {
+    return (int)MathUtils.mix64(key) & mask;
+  }
+
+  private int find(int key) {
+    if (key < 0) {
+      throw new IllegalArgumentException("key should not be negative: " + key);
+    }
+    int mask = keys.length - 1;
+    int slot = slotOf(key, mask);
+    while (keys[slot] != FREE && keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  @SuppressWarnings("unchecked")
+  public V get(int key) {
+    int slot = find(key);
+    return keys[slot] == FREE ? null : (V)values[slot];
+  }
+
+  public boolean containsKey(int key) {
+    return keys[find(key)] != FREE;
+  }
+
+  /**
+   * @return previous value of the key or null
+   */
+  @SuppressWarnings("unchecked")
+  public V put(int key, V value) {
+    int slot = find(key);
+    if (keys[slot] != FREE) {
+      V result = (V)values[slot];
+      values[slot] = value;
+      return result;
+    }
+    keys[slot] = key;
+    values[slot] = value;
+    if (++size * 2 > keys.length) {
+      rehash(keys.length << 1);
+    }
+    return null;
+  }
+
+  /**
+   * @return removed value or null if there was no key
+   */
+  @SuppressWarnings("unchecked")
+  public V remove(int key) {
+    int slot = find(key);
+    if (keys[slot] == FREE) {
+      return null;
+    }
+    V result = (V)values[slot];
+    //shift back following entries of the probe sequence, so lookups don't stop at the freed slot
+    int mask = keys.length - 1;
+    int free = slot;
+    for (int next = (free + 1) & mask; keys[next] != FREE; next = (next + 1) & mask) {
+      int home = slotOf(keys[next], mask);
+      if (((next - home) & mask) >= ((next - free) & mask)) {
+        keys[free] = keys[next];
+        values[free] = values[next];
+        free = next;
+      }
+    }
+    keys[free] = FREE;
+    values[free] = null;
+    size--;
+    return result;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public void clear() {
+    Arrays.fill(keys, FREE);
+    Arrays.fill(values, null);
+    size = 0;
+  }
+
+  private void rehash(int capacity) {
+    int[] oldKeys = keys;
+    Object[] oldValues = values;
+    allocate(capacity);
+    int mask = capacity - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != FREE) {
+        int slot = slotOf(oldKeys[i], mask);
+        while (keys[slot] != FREE) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+}
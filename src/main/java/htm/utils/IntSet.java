@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2011, Peace Technology, Inc.
+ * $Author:$
+ * $Revision:$
+ * $Date:$
+ * $NoKeywords$
+ */
+
+package htm.utils;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing set of non negative ints with linear probing and no boxing, elements can't be removed
+ * one by one, only cleared all at once.
+ */
+public class IntSet {
+  private static final int FREE = -1;
+  private static final int MIN_CAPACITY = 8;
+
+  private int[] keys;
+  private int size;
+
+  public IntSet() {
+    this(MIN_CAPACITY / 2);
+  }
+
+  public IntSet(int expectedSize) {
+    int capacity = MIN_CAPACITY;
+    while (capacity < expectedSize * 2) {
+      capacity <<= 1;
+    }
+    keys = new int[capacity];
+    Arrays.fill(keys, FREE);
+  }
+
+  private int find(int key) {
+    if (key < 0) {
+      throw new IllegalArgumentException("key should not be negative: " + key);
+    }
+    int mask = keys.length - 1;
+    int slot = IntObjectMap.slotOf(key, mask);
+    while (keys[slot] != FREE && keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  public boolean contains(int key) {
+    return keys[find(key)] != FREE;
+  }
+
+  /**
+   * @return true if the key wasn't in the set
+   */
+  public boolean add(int key) {
+    int slot = find(key);
+    if (keys[slot] != FREE) {
+      return false;
+    }
+    keys[slot] = key;
+    if (++size * 2 > keys.length) {
+      int[] oldKeys = keys;
+      keys = new int[oldKeys.length << 1];
+      Arrays.fill(keys, FREE);
+      for (int oldKey : oldKeys) {
+        if (oldKey != FREE) {
+          keys[find(oldKey)] = oldKey;
+        }
+      }
+    }
+    return true;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public void clear() {
+    Arrays.fill(keys, FREE);
+    size = 0;
+  }
+}
@@ -15,6 +15,8 @@ public class MathUtils {
 //  private MathUtils() {
 //  }
 
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
   static public double findMax(Double... values) {
     double max = Double.MIN_VALUE;
     for (double d : values) {
@@ -47,6 +49,23 @@ public class MathUtils {
     return min;
   }
 
+  /**
+   * SplitMix64 finalizer, spreads close values(e.g. seed + index) over the whole long range
+   */
+  public static long mix64(long value) {
+    value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+    value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+    return value ^ (value >>> 31);
+  }
+
+  /**
+   * Seed of random stream split from the model seed by stream keys(e.g. element index and time step),
+   * streams with different keys are independent of each other
+   */
+  public static long splitSeed(long seed, long key, long subKey) {
+    return mix64(mix64(seed + GOLDEN_GAMMA * (key + 1)) + GOLDEN_GAMMA * (subKey + 1));
+  }
+
   public static boolean inRange(int value, int lowerBound, int upperBound) {
     return (lowerBound <= value && value <= upperBound);
   }
@@ -55,6 +74,44 @@ public class MathUtils {
      return (lowerBound <= value && value <= upperBound);
    }
 
+  /**
+   * k'th largest of the first count values found with quickselect, the values get partially reordered:
+   * (count - k) values not bigger than the result are placed before it, the rest after it
+   */
+  public static double kthLargest(double[] values, int count, int k) {
+    if (k < 1 || k > count) {
+      throw new IllegalArgumentException("k:" + k + " should be within 1 and count:" + count);
+    }
+    int target = count - k, left = 0, right = count - 1;
+    while (left < right) {
+      double pivot = values[(left + right) >>> 1];
+      int i = left, j = right;
+      while (i <= j) {
+        while (values[i] < pivot) {
+          i++;
+        }
+        while (values[j] > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          double tmp = values[i];
+          values[i] = values[j];
+          values[j] = tmp;
+          i++;
+          j--;
+        }
+      }
+      if (target <= j) {
+        right = j;
+      } else if (target >= i) {
+        left = i;
+      } else {
+        break;
+      }
+    }
+    return values[target];
+  }
+
   public static double round(double value, int places) {
       if (places < 0) throw new IllegalArgumentException("places should not be negative");
       BigDecimal bd = new BigDecimal(value);
@@ -5,6 +5,8 @@ import htm.model.Column;
 import htm.model.DistalDendriteSegment;
 import htm.model.Layer;
 import htm.model.Synapse;
+import htm.model.algorithms.ColumnRangeExecutor;
+import htm.model.algorithms.PipelinedRunner;
 import htm.model.algorithms.spatial.SpatialPooler;
 import htm.model.algorithms.spatial.WhitePaperSpatialPooler;
 import htm.model.algorithms.temporal.TemporalPooler;
@@ -95,6 +97,8 @@ public class HTMGraphicInterface extends JPanel {
 
   private final WhitePaperTemporalPooler temporalPooler;
   private final SpatialPooler spatialPooler;
+  private final PipelinedRunner pipelinedRunner;
+  private final ColumnRangeExecutor columnRangeExecutor;
   private final Layer layer;
   private final LayerSlicedHorizontalView slicedView;
   private final ControlPanel control;
@@ -141,6 +145,10 @@ public class HTMGraphicInterface extends JPanel {
     this.layer = new Layer(cfg.getRegionConfig());
     this.temporalPooler = (WhitePaperTemporalPooler)new WhitePaperTemporalPooler(cfg.getTemporalPoolerConfig()).setLayer(layer);
     this.spatialPooler = (SpatialPooler)new WhitePaperSpatialPooler(cfg.getSpatialPoolerConfig()).setLayer(layer);
+    this.columnRangeExecutor = new ColumnRangeExecutor(layer.getParallelism());
+    this.temporalPooler.setExecutor(columnRangeExecutor);
+    this.spatialPooler.setExecutor(columnRangeExecutor);
+    this.pipelinedRunner = new PipelinedRunner(spatialPooler, temporalPooler);
     this.sensoryInputSurface = new SensoryInputSurface(layer.getInputSpace());
     this.sdrInput = new ColumnSDRSurface(layer);
     this.slicedView = new LayerSlicedHorizontalView(layer) {
@@ -404,14 +412,18 @@ public class HTMGraphicInterface extends JPanel {
                                                           temporalPooler.getMinThreshold()),
                       new SpatialPooler.Config(spatialPooler.getMinimalOverlap(),
                                                spatialPooler.getDesiredLocalActivity(),
-                                               spatialPooler.getBoostRate()),
+                                               spatialPooler.getBoostRate(),
+                                               spatialPooler.isGlobalInhibition(),
+                                               spatialPooler.isIncrementalOverlap()),
                       new Layer.Config(layer.getDimension(), layer.getInputSpaceDimension(),
                                        layer.getInputRadius(), layer.getLearningRadius(),
-                                       layer.isSkipSpatial(), layer.getCellsInColumn()),
+                                       layer.isSkipSpatial(), layer.getCellsInColumn(), layer.getSeed(),
+                                       layer.getParallelism()),
 
                       new Column.Config(Column.AMOUNT_OF_PROXIMAL_SYNAPSES),
                       new Cell.Config(Cell.AMOUNT_OF_SYNAPSES,
-                                      Cell.TIME_STEPS),
+                                      Cell.TIME_STEPS, Cell.MAX_SEGMENTS,
+                                      Cell.MAX_SEGMENT_UPDATES, Cell.SEGMENT_UPDATES_HORIZON),
                       new Synapse.Config(Synapse.ProximalSynapse.CONNECTED_PERMANENCE,
                                          Synapse.ProximalSynapse.PERMANENCE_INCREASE,
                                          Synapse.ProximalSynapse.PERMANENCE_DECREASE
@@ -487,6 +499,7 @@ public class HTMGraphicInterface extends JPanel {
     private Action temporalLearningAction;
     private Action fullSpeedAction;
     private Action temporalSplitAction;
+    private Action pipelineAction;
 
     final JToolBar toolBar = new JToolBar();
     final Container infoPane = new Container();
@@ -536,6 +549,8 @@ public class HTMGraphicInterface extends JPanel {
         @Override public void actionPerformed(ActionEvent e) {
           synchronized (temporalSplitLock) {
             process.step();
+            //show the whole step
+            pipelinedRunner.flush();
           }
           process.sendUpdateNotification();
         }
@@ -597,6 +612,16 @@ public class HTMGraphicInterface extends JPanel {
 
       temporalSplitAction.putValue(Action.SELECTED_KEY, HTMProcess.TEMPORAL_SPLIT_DEFAULT);
 
+      pipelineAction = new AbstractAction("Pipeline") {
+        @Override public void actionPerformed(ActionEvent e) {
+          synchronized (temporalSplitLock) {
+            process.setPipeline(!process.isPipeline());
+          }
+        }
+      };
+
+      pipelineAction.putValue(Action.SELECTED_KEY, HTMProcess.PIPELINE_DEFAULT);
+
       enableActions();
 
     }
@@ -641,6 +666,7 @@ public class HTMGraphicInterface extends JPanel {
       toolBar.add(new ToolBarCheckBox(temporalLearningAction));
       toolBar.add(new ToolBarCheckBox(fullSpeedAction));
       toolBar.add(new ToolBarCheckBox(temporalSplitAction));
+      toolBar.add(new ToolBarCheckBox(pipelineAction));
       toolBar.addSeparator();
       toolBar.add(infoPane);
       this.add(toolBar);
@@ -687,9 +713,21 @@ public class HTMGraphicInterface extends JPanel {
     process.reset();
   }
 
+  /**
+   * Stop the process and release threads of the model, call it before the interface is replaced
+   */
+  public void dispose() {
+    process.dispose();
+    synchronized (temporalSplitLock) {
+      pipelinedRunner.shutdown();
+      columnRangeExecutor.shutdown();
+    }
+  }
+
   private class HTMProcess extends Observable {
     public final static boolean FULL_SPEED_DEFAULT = false;
     public final static boolean TEMPORAL_SPLIT_DEFAULT = false;
+    public final static boolean PIPELINE_DEFAULT = false;
     private volatile int currentPatternIndex = 0;
     private volatile int cycleCounter = 0;
     private final ExecutorService es = Executors.newSingleThreadExecutor();
@@ -700,6 +738,8 @@ public class HTMGraphicInterface extends JPanel {
     */
     private volatile boolean temporalSplit = TEMPORAL_SPLIT_DEFAULT;
     volatile int temporalPhasePointer = 0;
+    /*Spatial pooling of the next pattern runs while temporal pooling of the current one is still running*/
+    private volatile boolean pipeline = PIPELINE_DEFAULT;
 
     public boolean isFullSpeed() {
       return fullSpeed;
@@ -717,6 +757,17 @@ public class HTMGraphicInterface extends JPanel {
       this.temporalSplit = temporalSplit;
     }
 
+    public boolean isPipeline() {
+      return pipeline;
+    }
+
+    public void setPipeline(boolean pipeline) {
+      this.pipeline = pipeline;
+      if (!pipeline) {
+        pipelinedRunner.flush();
+      }
+    }
+
     public void sendUpdateNotification() {
       esUpdate.submit(new Callable<Object>() {
         @Override public Object call() throws Exception {
@@ -740,9 +791,14 @@ public class HTMGraphicInterface extends JPanel {
         }
         if (!temporalSplit) {
           LOG.debug("Start step #" + process.getCycle() + ", " + process.currentPatternIndex);
-          spatialPooler.execute();
-          temporalPooler.execute();
+          if (pipeline) {
+            pipelinedRunner.step();
+          } else {
+            spatialPooler.execute();
+            temporalPooler.execute();
+          }
         } else {
+          pipelinedRunner.flush();
           switch (temporalPhasePointer) {
             case 0: {
               LOG.debug("Start step #" + process.getCycle() + ", " + process.currentPatternIndex);
@@ -789,11 +845,18 @@ public class HTMGraphicInterface extends JPanel {
             return false;
           }
 
-          while (!processFuture.isCancelled()) {
+          try {
+            while (!processFuture.isCancelled()) {
+              synchronized (temporalSplitLock) {
+                step();
+              }
+              sendUpdateNotification();
+            }
+          } finally {
+            //complete temporal pooling of the last pattern
             synchronized (temporalSplitLock) {
-              step();
+              pipelinedRunner.flush();
             }
-            sendUpdateNotification();
           }
           return false;
         }
@@ -818,6 +881,19 @@ public class HTMGraphicInterface extends JPanel {
       return cycleCounter;
     }
 
+    void dispose() {
+      stop();
+      es.shutdown();
+      try {
+        if (!es.awaitTermination(5, TimeUnit.SECONDS)) {
+          LOG.warn("Process didn't stop in time");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      esUpdate.shutdown();
+    }
+
     public void reset() {
       processFuture = null;
       currentPatternIndex = 0;
@@ -174,10 +174,13 @@ public class Parameters {
         private final DoubleParameter learningRadiusParam;
         private final DoubleParameter inputRadiusParam;
         private final Parameters.IntegerParameter cellsInColumnParam;
+        private final Parameters.IntegerParameter parallelismParam;
         private final JCheckBox skipSpatialCb;
+        private long seed;
 
         RegionParameters(Layer.Config cfg) {
             setLayout(new SpringLayout());
+            seed = cfg.getSeed();
             regionWidthParam = new IntegerParameter(1, 50, cfg.getRegionDimension().width);
             regionHeightParam = new IntegerParameter(1, 50, cfg.getRegionDimension().height);
             inputSpaceWidthParam = new IntegerParameter(1, 50, cfg.getSensoryInputDimension().width);
@@ -185,6 +188,7 @@ public class Parameters {
             learningRadiusParam = new DoubleParameter(1.0, 50.0, cfg.getLearningRadius(), 200);
             inputRadiusParam = new DoubleParameter(1.0, 25.0, cfg.getInputRadius(), 200);
             cellsInColumnParam = new IntegerParameter(1, 20, cfg.getCellsInColumn());
+            parallelismParam = new IntegerParameter(1, 32, cfg.getParallelism());
             skipSpatialCb = new JCheckBox(null, null, cfg.isSkipSpatial());
             JLabel l = new FixedWidthLabel("Region Width");
             this.add(l);
@@ -207,11 +211,14 @@ public class Parameters {
             l = new FixedWidthLabel("Cells per Column");
             this.add(l);
             this.add(cellsInColumnParam);
+            l = new FixedWidthLabel("Parallelism");
+            this.add(l);
+            this.add(parallelismParam);
             l = new FixedWidthLabel("Skip Spatial");
             this.add(l);
             this.add(skipSpatialCb);
             UIUtils.makeSpringCompactGrid(this,
-                                          8, 2, //rows, cols
+                                          9, 2, //rows, cols
                                           6, 6,        //initX, initY
                                           6, 6);       //xPad, yPad
         }
@@ -224,16 +231,20 @@ public class Parameters {
                                     inputRadiusParam.getValue(),
                                     learningRadiusParam.getValue(),
                                     skipSpatialCb.isSelected(),
-                                    cellsInColumnParam.getValue());
+                                    cellsInColumnParam.getValue(),
+                                    seed,
+                                    parallelismParam.getValue());
         }
 
         void setParameters(Layer.Config cfg) {
+            seed = cfg.getSeed();
             regionWidthParam.setValue(cfg.getRegionDimension().width);
             regionHeightParam.setValue(cfg.getRegionDimension().height);
             inputSpaceWidthParam.setValue(cfg.getSensoryInputDimension().width);
             inputSpaceHeightParam.setValue(cfg.getSensoryInputDimension().height);
             inputRadiusParam.setValue(cfg.getInputRadius());
             learningRadiusParam.setValue(cfg.getLearningRadius());
+            parallelismParam.setValue(cfg.getParallelism());
             skipSpatialCb.setSelected(cfg.isSkipSpatial());
         }
     }
@@ -242,11 +253,15 @@ public class Parameters {
         private final Parameters.IntegerParameter minOverlapParam;
         private final Parameters.IntegerParameter desiredLocalActivityParam;
         private final Parameters.DoubleParameter boostRateParam;
+        private final JCheckBox incrementalOverlapCb;
+        private boolean globalInhibition;
 
         SpatialPoolerParameters(SpatialPooler.Config cfg) {
+            globalInhibition = cfg.isGlobalInhibition();
             minOverlapParam = new IntegerParameter(1, 10, cfg.getMinOverlap());
             desiredLocalActivityParam = new IntegerParameter(1, 10, cfg.getDesiredLocalActivity());
             boostRateParam = new Parameters.DoubleParameter(0.005, 0.2, cfg.getBoostRate(), 200);
+            incrementalOverlapCb = new JCheckBox(null, null, cfg.isIncrementalOverlap());
             setLayout(new SpringLayout());
             JLabel l = new FixedWidthLabel("Min Overlap");
             this.add(l);
@@ -257,8 +272,11 @@ public class Parameters {
             l = new FixedWidthLabel("Boost Rate");
             this.add(l);
             this.add(boostRateParam);
+            l = new FixedWidthLabel("Incremental Overlap");
+            this.add(l);
+            this.add(incrementalOverlapCb);
             UIUtils.makeSpringCompactGrid(this,
-                                          3, 2, //rows, cols
+                                          4, 2, //rows, cols
                                           6, 6,        //initX, initY
                                           6, 6);       //xPad, yPad
         }
@@ -266,13 +284,17 @@ public class Parameters {
         SpatialPooler.Config getParameters() {
             return new SpatialPooler.Config(minOverlapParam.getValue(),
                                             desiredLocalActivityParam.getValue(),
-                                            boostRateParam.getValue());
+                                            boostRateParam.getValue(),
+                                            globalInhibition,
+                                            incrementalOverlapCb.isSelected());
         }
 
         void setParameters(SpatialPooler.Config cfg) {
+            globalInhibition = cfg.isGlobalInhibition();
             minOverlapParam.setValue(cfg.getMinOverlap());
             desiredLocalActivityParam.setValue(cfg.getDesiredLocalActivity());
             boostRateParam.setValue(cfg.getBoostRate());
+            incrementalOverlapCb.setSelected(cfg.isIncrementalOverlap());
         }
     }
 
@@ -344,32 +366,53 @@ public class Parameters {
 
         private final Parameters.IntegerParameter amountOfSynapsesParam;
         private final Parameters.IntegerParameter timeStepsParam;
+        private final Parameters.IntegerParameter maxSegmentsParam;
+        private final Parameters.IntegerParameter maxSegmentUpdatesParam;
+        private final Parameters.IntegerParameter segmentUpdatesHorizonParam;
 
         CellParameters(Cell.Config cellCfg) {
             setLayout(new SpringLayout());
             amountOfSynapsesParam = new IntegerParameter(5, 60, cellCfg.getAmountOfSynapses());
             timeStepsParam = new IntegerParameter(2, 30, cellCfg.getTimeSteps());
+            maxSegmentsParam = new IntegerParameter(1, 512, cellCfg.getMaxSegments());
+            maxSegmentUpdatesParam = new IntegerParameter(1, 512, cellCfg.getMaxSegmentUpdates());
+            segmentUpdatesHorizonParam = new IntegerParameter(1, 256, cellCfg.getSegmentUpdatesHorizon());
             JLabel l = new FixedWidthLabel("Amount of Synapses");
             this.add(l);
             this.add(amountOfSynapsesParam);
             l = new FixedWidthLabel("Time Buffer");
             this.add(l);
             this.add(timeStepsParam);
+            l = new FixedWidthLabel("Max Segments");
+            this.add(l);
+            this.add(maxSegmentsParam);
+            l = new FixedWidthLabel("Max Updates");
+            this.add(l);
+            this.add(maxSegmentUpdatesParam);
+            l = new FixedWidthLabel("Updates Horizon");
+            this.add(l);
+            this.add(segmentUpdatesHorizonParam);
             UIUtils.makeSpringCompactGrid(this,
-                                          2, 2, //rows, cols
+                                          5, 2, //rows, cols
                                           6, 6,        //initX, initY
                                           6, 6);       //xPad, yPad
         }
 
         Cell.Config getParameters() {
             return new Cell.Config(amountOfSynapsesParam.getValue(),
-                                   timeStepsParam.getValue());
+                                   timeStepsParam.getValue(),
+                                   maxSegmentsParam.getValue(),
+                                   maxSegmentUpdatesParam.getValue(),
+                                   segmentUpdatesHorizonParam.getValue());
         }
 
 
         void setParameters(Cell.Config cfg) {
             amountOfSynapsesParam.setValue(cfg.getAmountOfSynapses());
             timeStepsParam.setValue(cfg.getTimeSteps());
+            maxSegmentsParam.setValue(cfg.getMaxSegments());
+            maxSegmentUpdatesParam.setValue(cfg.getMaxSegmentUpdates());
+            segmentUpdatesHorizonParam.setValue(cfg.getSegmentUpdatesHorizon());
         }
     }
 
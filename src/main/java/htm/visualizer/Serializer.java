@@ -41,6 +41,8 @@ public enum Serializer {
   private static final String X_SIZE = "sizeX";
   private static final String Y_SIZE = "sizeY";
   private static final String CELLS_IN_COLUMN_ELEMENT = "cellsInColumn";
+  private static final String SEED_ELEMENT = "seed";
+  private static final String PARALLELISM_ELEMENT = "parallelism";
   private static final String PATTERNS_LIST_ELEMENT_NAME = "patternsList";
 
 
@@ -48,6 +50,8 @@ public enum Serializer {
   private static final String MIN_OVERLAP_ELEMENT = "minOverlap";
   private static final String DESIRED_LOCAL_ACTIVITY_ELEMENT = "desiredLocalActivity";
   private static final String BOOST_RATE_ELEMENT = "boostRate";
+  private static final String GLOBAL_INHIBITION_ELEMENT = "globalInhibition";
+  private static final String INCREMENTAL_OVERLAP_ELEMENT = "incrementalOverlap";
 
 
   private static final String NEW_SYNAPSE_COUNT_ELEMENT = "newSynapseCount";
@@ -55,6 +59,9 @@ public enum Serializer {
   private static final String MIN_THRESHOLD_ELEMENT = "minThreshold";
   private static final String AMOUNT_OF_DISTAL_SYNAPSES_ELEMENT = "amountOfSynapses";
   private static final String TIME_STEPS = "timeSteps";
+  private static final String MAX_SEGMENTS_ELEMENT = "maxSegments";
+  private static final String MAX_SEGMENT_UPDATES_ELEMENT = "maxSegmentUpdates";
+  private static final String SEGMENT_UPDATES_HORIZON_ELEMENT = "segmentUpdatesHorizon";
 
   private static final String CONNECTED_PERMANENCE_ELEMENT = "connectedPerm";
   private static final String PERMANENCE_INCREASE_ELEMENT = "permanenceInc";
@@ -79,10 +86,14 @@ public enum Serializer {
     Dimension regionDimension = new Dimension(-1, -1);
     Dimension inputSpaceDimension = new Dimension(-1, -1);
     int cellsInColumn = -1;
+    long seed = Layer.Config.DEFAULT_SEED;
+    int parallelism = Layer.Config.DEFAULT_PARALLELISM;
     int amountOfProximalSynapses = -1;
     int minOverlap = -1;
     int desiredLocalActivity = -1;
     double boostRate = -1.0;
+    boolean globalInhibition = false;
+    boolean incrementalOverlap = SpatialPooler.Config.DEFAULT_INCREMENTAL_OVERLAP;
     double proximalConnectedPerm = -1.0;
     double proximalPermanenceInc = -1.0;
     double proximalPermanenceDec = -1.0;
@@ -95,6 +106,9 @@ public enum Serializer {
     int minThreshold = -1;
     int amountOfDistalSynapses = -1;
     int timeSteps = -1;
+    int maxSegments = Cell.Config.DEFAULT_MAX_SEGMENTS;
+    int maxSegmentUpdates = Cell.Config.DEFAULT_MAX_SEGMENT_UPDATES;
+    int segmentUpdatesHorizon = Cell.Config.DEFAULT_SEGMENT_UPDATES_HORIZON;
 
 
     boolean parseRegion = false;
@@ -167,6 +181,18 @@ public enum Serializer {
           cellsInColumn = Integer.parseInt(event.asCharacters().getData());
           continue;
         }
+        if (event.asStartElement().getName().getLocalPart()
+                .equals(SEED_ELEMENT)) {
+          event = eventReader.nextEvent();
+          seed = Long.parseLong(event.asCharacters().getData());
+          continue;
+        }
+        if (event.asStartElement().getName().getLocalPart()
+                .equals(PARALLELISM_ELEMENT)) {
+          event = eventReader.nextEvent();
+          parallelism = Integer.parseInt(event.asCharacters().getData());
+          continue;
+        }
         if (event.asStartElement().getName().getLocalPart()
                 .equals(AMOUNT_OF_PROXIMAL_SYNAPSES_ELEMENT)) {
           event = eventReader.nextEvent();
@@ -193,6 +219,20 @@ public enum Serializer {
           continue;
         }
 
+        if (event.asStartElement().getName().getLocalPart()
+                .equals(GLOBAL_INHIBITION_ELEMENT)) {
+          event = eventReader.nextEvent();
+          globalInhibition = Boolean.parseBoolean(event.asCharacters().getData());
+          continue;
+        }
+
+        if (event.asStartElement().getName().getLocalPart()
+                .equals(INCREMENTAL_OVERLAP_ELEMENT)) {
+          event = eventReader.nextEvent();
+          incrementalOverlap = Boolean.parseBoolean(event.asCharacters().getData());
+          continue;
+        }
+
         if (event.asStartElement().getName().getLocalPart()
                 .equals(NEW_SYNAPSE_COUNT_ELEMENT)) {
           event = eventReader.nextEvent();
@@ -223,6 +263,24 @@ public enum Serializer {
           timeSteps = Integer.parseInt(event.asCharacters().getData());
           continue;
         }
+        if (event.asStartElement().getName().getLocalPart()
+                .equals(MAX_SEGMENTS_ELEMENT)) {
+          event = eventReader.nextEvent();
+          maxSegments = Integer.parseInt(event.asCharacters().getData());
+          continue;
+        }
+        if (event.asStartElement().getName().getLocalPart()
+                .equals(MAX_SEGMENT_UPDATES_ELEMENT)) {
+          event = eventReader.nextEvent();
+          maxSegmentUpdates = Integer.parseInt(event.asCharacters().getData());
+          continue;
+        }
+        if (event.asStartElement().getName().getLocalPart()
+                .equals(SEGMENT_UPDATES_HORIZON_ELEMENT)) {
+          event = eventReader.nextEvent();
+          segmentUpdatesHorizon = Integer.parseInt(event.asCharacters().getData());
+          continue;
+        }
 
 
         if (event.asStartElement().getName().getLocalPart()
@@ -285,16 +343,22 @@ public enum Serializer {
                                                                     minThreshold),
                                           new SpatialPooler.Config( minOverlap,
                                                                     desiredLocalActivity,
-                                                                    boostRate),
+                                                                    boostRate,
+                                                                    globalInhibition,
+                                                                    incrementalOverlap),
                                           new Layer.Config(regionDimension, inputSpaceDimension, inputRadius,
                                                            learningRadius,
-                                                           skipSpatialPooling, cellsInColumn),
+                                                           skipSpatialPooling, cellsInColumn, seed,
+                                                           parallelism),
                                           new Column.Config(
                                                   amountOfProximalSynapses
                                                  ),
                                           new Cell.Config(
                                                   amountOfDistalSynapses,
-                                                  timeSteps
+                                                  timeSteps,
+                                                  maxSegments,
+                                                  maxSegmentUpdates,
+                                                  segmentUpdatesHorizon
                                           ),
                                           new Synapse.Config(
                                                   proximalConnectedPerm, proximalPermanenceInc,
@@ -337,6 +401,8 @@ public enum Serializer {
     createNode(eventWriter, INPUT_RADIUS_ELEMENT, regionCfg.getInputRadius() + "");
     createNode(eventWriter, LEARNING_RADIUS_ELEMENT, regionCfg.getLearningRadius() + "");
     createNode(eventWriter, CELLS_IN_COLUMN_ELEMENT, regionCfg.getCellsInColumn() + "");
+    createNode(eventWriter, SEED_ELEMENT, regionCfg.getSeed() + "");
+    createNode(eventWriter, PARALLELISM_ELEMENT, regionCfg.getParallelism() + "");
     createNode(eventWriter, X_SIZE, regionCfg.getRegionDimension().width + "");
     createNode(eventWriter, Y_SIZE, regionCfg.getRegionDimension().height + "");
     eventWriter.add(eventFactory.createEndElement("", "", REGION_ELEMENT));
@@ -359,6 +425,10 @@ public enum Serializer {
                spacialPoolerCfg.getDesiredLocalActivity() + "");
     createNode(eventWriter, BOOST_RATE_ELEMENT,
                spacialPoolerCfg.getBoostRate() + "");
+    createNode(eventWriter, GLOBAL_INHIBITION_ELEMENT,
+               spacialPoolerCfg.isGlobalInhibition() + "");
+    createNode(eventWriter, INCREMENTAL_OVERLAP_ELEMENT,
+               spacialPoolerCfg.isIncrementalOverlap() + "");
     eventWriter.add(eventFactory.createEndElement("", "", COLUMN_ELEMENT));
     eventWriter.add(end);
 
@@ -373,6 +443,12 @@ public enum Serializer {
                cellCfg.getAmountOfSynapses() + "");
     createNode(eventWriter, TIME_STEPS,
                cellCfg.getTimeSteps() + "");
+    createNode(eventWriter, MAX_SEGMENTS_ELEMENT,
+               cellCfg.getMaxSegments() + "");
+    createNode(eventWriter, MAX_SEGMENT_UPDATES_ELEMENT,
+               cellCfg.getMaxSegmentUpdates() + "");
+    createNode(eventWriter, SEGMENT_UPDATES_HORIZON_ELEMENT,
+               cellCfg.getSegmentUpdatesHorizon() + "");
     eventWriter.add(eventFactory.createEndElement("", "", CELL_ELEMENT));
     eventWriter.add(end);
 
@@ -137,8 +137,8 @@ public class SpatialInfo extends JPanel {
         result.put("Overlap", UIUtils.DF_2.format(column.getOverlap()));
         result.put("Over. Duty Cycle", UIUtils.DF_4.format(column.getOverlapDutyCycle()));
         result.put("Neighbors Count", column.getNeighbors(inhibitionRadius).size() + "");
-        result.put("Connected Syn.", column.getConnectedSynapses().size() + "");
-        result.put("Active Syn.", column.getActiveConnectedSynapses().size() + "");
+        result.put("Connected Syn.", column.getConnectedSynapsesCount() + "");
+        result.put("Active Syn.", column.getActiveConnectedSynapsesCount() + "");
         result.put("Avg. Rec. Field", UIUtils.DF_2.format(inhibitionRadius) + "");
       }
       return result;
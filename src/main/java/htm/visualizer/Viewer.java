@@ -105,7 +105,9 @@ public class Viewer extends JFrame {
                                     modRegionCfg.getSensoryInputDimension(),
                                     modRegionCfg.getInputRadius(), modRegionCfg.getLearningRadius(),
                                     modRegionCfg.isSkipSpatial(),
-                                    modRegionCfg.getCellsInColumn()),
+                                    modRegionCfg.getCellsInColumn(),
+                                    modRegionCfg.getSeed(),
+                                    modRegionCfg.getParallelism()),
                             modCfg.getColumnConfig(),
                             modCfg.getCellConfig(),
                             modCfg.getProximalSynapseConfig(),
@@ -137,7 +139,9 @@ public class Viewer extends JFrame {
                                                                                            oldRegionCfg.getInputRadius(),
                                                                                            oldRegionCfg.getLearningRadius(),
                                                                                            checked,
-                                                                                           oldRegionCfg.getCellsInColumn()),
+                                                                                           oldRegionCfg.getCellsInColumn(),
+                                                                                           oldRegionCfg.getSeed(),
+                                                                                           oldRegionCfg.getParallelism()),
                                                                                    oldCfg.getColumnConfig(),
                                                                                    oldCfg.getCellConfig(),
                                                                                    oldCfg.getProximalSynapseConfig(),
@@ -207,6 +211,7 @@ public class Viewer extends JFrame {
 
     private void reloadHTMInterface(HTMGraphicInterface.Config newCfg) {
         this.remove(htmInterface);
+        htmInterface.dispose();
         htmInterface = new HTMGraphicInterface(newCfg);
         this.add(htmInterface);
         skipSpatialPoolMenuItem.setState(htmInterface.getLayer().isSkipSpatial());
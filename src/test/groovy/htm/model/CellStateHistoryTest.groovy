@@ -0,0 +1,92 @@
+package htm.model
+
+import htm.AbstractSpockTest
+import org.junit.Test
+
+class CellStateHistoryTest extends AbstractSpockTest {
+    @Test
+    void testStatesSameAsPerCellHistory() {
+        setup:
+        def history = new CellStateHistory(cellsNumber, timeSteps)
+        def random = new Random(cellsNumber * 31 + timeSteps)
+        //per cell boolean and int histories, newest step first
+        def newStep = {
+            [active : new boolean[cellsNumber], learn: new boolean[cellsNumber],
+             predict: (0..<cellsNumber).collect { Cell.NOT_IN_STEP_PREDICTION } as int[]]
+        }
+        def steps = (0..<timeSteps).collect { newStep() }
+        def mismatches = 0, staleVersions = 0
+        def expectedCells = { int time, boolean withActive ->
+            (0..<cellsNumber).findAll { steps[time].learn[it] || withActive && steps[time].active[it] }
+        }
+        def iterated = { int time, boolean withActive ->
+            def result = []
+            int inx = withActive ? history.nextActiveOrLearnCell(time, 0) : history.nextLearnCell(time, 0)
+            while (inx != -1) {
+                result << inx
+                inx = withActive ? history.nextActiveOrLearnCell(time, inx + 1) : history.nextLearnCell(time, inx + 1)
+            }
+            result
+        }
+        (timeSteps * 3 + 2).times {
+            long version = history.version
+            history.nextTimeStep()
+            staleVersions += history.version == version ? 1 : 0
+            steps.add(0, newStep())
+            steps.remove(steps.size() - 1)
+            (cellsNumber / 4).times {
+                int cell = random.nextInt(cellsNumber)
+                version = history.version
+                if (random.nextBoolean()) {
+                    history.setActiveState(cell)
+                    steps[0].active[cell] = true
+                } else {
+                    history.setLearnState(cell)
+                    steps[0].learn[cell] = true
+                }
+                staleVersions += history.version == version ? 1 : 0
+                int predict = random.nextInt(timeSteps + 1) - 1
+                history.setPredictInStepState(cell, predict)
+                steps[0].predict[cell] = predict
+            }
+            for (int time = 0; time < timeSteps; time++) {
+                for (int cell = 0; cell < cellsNumber; cell++) {
+                    mismatches += history.getActiveState(time, cell) != steps[time].active[cell] ? 1 : 0
+                    mismatches += history.getLearnState(time, cell) != steps[time].learn[cell] ? 1 : 0
+                    mismatches += history.getPredictInStepState(time, cell) != steps[time].predict[cell] ? 1 : 0
+                }
+                mismatches += iterated(time, false) != expectedCells(time, false) ? 1 : 0
+                mismatches += iterated(time, true) != expectedCells(time, true) ? 1 : 0
+            }
+        }
+
+        expect:
+        history.step == timeSteps * 3 + 2
+        mismatches == 0
+        staleVersions == 0
+
+        where:
+        cellsNumber | timeSteps
+        1           | 2
+        64          | 2
+        200         | 3
+        257         | 5
+    }
+
+    @Test
+    void testTimeBeyondHistoryRejected() {
+        setup:
+        def history = new CellStateHistory(10, 3)
+        def rejected = [-1, 3].every { int time ->
+            try {
+                history.getActiveState(time, 0)
+                false
+            } catch (IndexOutOfBoundsException e) {
+                true
+            }
+        }
+
+        expect:
+        rejected
+    }
+}
@@ -0,0 +1,245 @@
+package htm.model
+
+import htm.AbstractSpockTest
+import htm.model.algorithms.ColumnRangeExecutor
+import htm.model.algorithms.PoolersFixture
+import org.junit.Test
+
+import java.util.concurrent.atomic.AtomicInteger
+
+class CellTest extends AbstractSpockTest {
+    @Test
+    void testOutgoingSynapsesRegisteredConcurrently() {
+        setup:
+        def layer = new PoolersFixture(PoolersFixture.loadExample("balls-reflect.xml", 3, Layer.Config.DEFAULT_SEED), 1).layer
+        def columns = layer.elementsList
+        //every segment gets a synapse from each of the few presynaptic cells, so their outgoing lists are written by all threads
+        def presynapticCells = (0..<3).collect { layer.getCellByLayerIndex(it * 97) }
+        def executor = new ColumnRangeExecutor(8)
+        def segments = Collections.synchronizedList(new ArrayList<DistalDendriteSegment>())
+        def started = new AtomicInteger()
+        executor.execute(columns.size(), new ColumnRangeExecutor.RangeTask() {
+            @Override void run(int from, int to) {
+                //first ranges wait for each other, so all threads register synapses at the same time
+                started.incrementAndGet()
+                while (started.get() < executor.parallelism) {
+                    Thread.yield()
+                }
+                for (int i = from; i < to; i++) {
+                    for (Cell cell : columns.get(i).elementsList) {
+                        20.times {
+                            def segment = new DistalDendriteSegment(cell, null)
+                            for (Cell presynapticCell : presynapticCells) {
+                                segment.addElement(new Synapse.DistalSynapse(presynapticCell))
+                            }
+                            segments.add(segment)
+                        }
+                    }
+                }
+            }
+        })
+        def registered = presynapticCells.collect { it.outgoingSynapses.size() }
+        def registeredToSegments = presynapticCells.every { cell -> cell.outgoingSynapses.every { it.segment.contains(it) } }
+        executor.execute(columns.size(), new ColumnRangeExecutor.RangeTask() {
+            @Override void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    for (Cell cell : columns.get(i).elementsList) {
+                        cell.deleteAllSegment()
+                    }
+                }
+            }
+        })
+        executor.shutdown()
+
+        expect:
+        columns.size() > 64 * 8
+        registered.every { it == segments.size() }
+        registeredToSegments
+        presynapticCells.every { it.outgoingSynapses.isEmpty() }
+    }
+
+    @Test
+    void testSegmentUpdatesCapped() {
+        setup:
+        def cfg = PoolersFixture.loadExample("balls-reflect.xml", 1, Layer.Config.DEFAULT_SEED)
+        def layer = new PoolersFixture(cfg, 1).layer
+        Cell.updateFromConfig(new Cell.Config(Cell.AMOUNT_OF_SYNAPSES, Cell.TIME_STEPS, Cell.MAX_SEGMENTS, 4,
+                                              Cell.SEGMENT_UPDATES_HORIZON))
+        def cell = layer.getCellByLayerIndex(5)
+        def updates = (0..<queued).collect { new DistalDendriteSegment.Update(cell, null, Cell.NOW, null) }
+
+        expect:
+        cell.segmentUpdates.size() == Math.min(queued, 4)
+        //the oldest updates are dropped
+        (0..<cell.segmentUpdates.size()).every { cell.segmentUpdates[it].is(updates[queued - cell.segmentUpdates.size() + it]) }
+        layer.cellsWithUpdatesCount == 1
+
+        cleanup:
+        Cell.updateFromConfig(cfg.cellConfig)
+
+        where:
+        queued << [1, 4, 5, 9]
+    }
+
+    @Test
+    void testSegmentUpdatesExpired() {
+        setup:
+        def cfg = PoolersFixture.loadExample("balls-reflect.xml", 1, Layer.Config.DEFAULT_SEED)
+        def layer = new PoolersFixture(cfg, 1).layer
+        Cell.updateFromConfig(new Cell.Config(Cell.AMOUNT_OF_SYNAPSES, Cell.TIME_STEPS, Cell.MAX_SEGMENTS,
+                                              Cell.MAX_SEGMENT_UPDATES, 3))
+        def everyStepCell = layer.getCellByLayerIndex(5), firstStepsCell = layer.getCellByLayerIndex(70)
+        def everyStepUpdates = []
+        def cellsWithUpdates = []
+        8.times { step ->
+            everyStepUpdates << new DistalDendriteSegment.Update(everyStepCell, null, Cell.NOW, null)
+            if (step < 2) {
+                new DistalDendriteSegment.Update(firstStepsCell, null, Cell.NOW, null)
+            }
+            layer.nextTimeStep()
+            cellsWithUpdates << layer.cellsWithUpdatesCount
+        }
+        long oldestStep = layer.cellStateHistory.step - 3
+
+        expect:
+        everyStepCell.segmentUpdates.every { it.createdStep >= oldestStep }
+        everyStepCell.segmentUpdates == everyStepUpdates.findAll { it.createdStep >= oldestStep }
+        everyStepCell.segmentUpdates.size() == 3
+        firstStepsCell.segmentUpdates.isEmpty()
+        //second step updates of the other cell are in the horizon until the fifth step
+        cellsWithUpdates == [2, 2, 2, 2, 1, 1, 1, 1]
+
+        cleanup:
+        Cell.updateFromConfig(cfg.cellConfig)
+    }
+
+    @Test
+    void testSegmentUpdatesWithinBoundsWhileLearning() {
+        setup:
+        def cfg = PoolersFixture.loadExample(example, 1, Layer.Config.DEFAULT_SEED)
+        def fixture = new PoolersFixture(cfg, 1)
+        def layer = fixture.layer
+        Cell.updateFromConfig(new Cell.Config(Cell.AMOUNT_OF_SYNAPSES, Cell.TIME_STEPS, Cell.MAX_SEGMENTS, maxUpdates,
+                                              horizon))
+        def cells = layer.elementsList.collectMany { it.elementsList }
+        int maxQueued = 0, fullQueues = 0, overaged = 0
+        60.times {
+            fixture.nextInput()
+            fixture.spatialPooler.execute()
+            fixture.temporalPooler.execute()
+            long oldestStep = layer.cellStateHistory.step - Cell.SEGMENT_UPDATES_HORIZON
+            cells.each { Cell cell ->
+                maxQueued = Math.max(maxQueued, cell.segmentUpdates.size())
+                fullQueues += cell.segmentUpdates.size() == Cell.MAX_SEGMENT_UPDATES ? 1 : 0
+                overaged += cell.segmentUpdates.count { it.createdStep < oldestStep }
+            }
+        }
+
+        expect:
+        //both bounds are reached by the example, and never exceeded
+        fullQueues > 0
+        maxQueued == Cell.MAX_SEGMENT_UPDATES
+        overaged == 0
+
+        cleanup:
+        Cell.updateFromConfig(cfg.cellConfig)
+
+        where:
+        example             | maxUpdates | horizon
+        "balls-reflect.xml" | 2          | 3
+        "aaax.xml"          | 3          | 5
+    }
+
+    @Test
+    void testSegmentUpdateExpiredAfterHorizon() {
+        setup:
+        def cfg = PoolersFixture.loadExample("balls-reflect.xml", 1, Layer.Config.DEFAULT_SEED)
+        def layer = new PoolersFixture(cfg, 1).layer
+        Cell.updateFromConfig(new Cell.Config(Cell.AMOUNT_OF_SYNAPSES, Cell.TIME_STEPS, Cell.MAX_SEGMENTS,
+                                              Cell.MAX_SEGMENT_UPDATES, 4))
+        def cell = layer.getCellByLayerIndex(5)
+        def update = new DistalDendriteSegment.Update(cell, null, Cell.NOW, null)
+        steps.times { layer.nextTimeStep() }
+        long age = layer.cellStateHistory.step - update.createdStep
+
+        expect:
+        age == steps
+        cell.segmentUpdates.contains(update) == (age <= Cell.SEGMENT_UPDATES_HORIZON)
+        layer.cellsWithUpdatesCount == (age <= Cell.SEGMENT_UPDATES_HORIZON ? 1 : 0)
+
+        cleanup:
+        Cell.updateFromConfig(cfg.cellConfig)
+
+        where:
+        steps << [0, 1, 4, 5, 9]
+    }
+
+    @Test
+    void testLeastRecentlyActiveSegmentEvicted() {
+        setup:
+        def cfg = PoolersFixture.loadExample("balls-reflect.xml", 1, Layer.Config.DEFAULT_SEED)
+        def fixture = new PoolersFixture(cfg, 1)
+        def layer = fixture.layer
+        Cell.updateFromConfig(new Cell.Config(Cell.AMOUNT_OF_SYNAPSES, Cell.TIME_STEPS, 3, Cell.MAX_SEGMENT_UPDATES,
+                                              Cell.SEGMENT_UPDATES_HORIZON))
+        def cell = layer.getCellByLayerIndex(5)
+        def presynapticCells = (1..4).collect { layer.getCellByLayerIndex(it * 20) }
+        def segments = (0..<3).collect {
+            def segment = new DistalDendriteSegment(cell, null)
+            segment.addElement(new Synapse.DistalSynapse(presynapticCells[it]))
+            layer.nextTimeStep()
+            segment
+        }
+        //the oldest segment is active again, so the second one is the least recently active
+        segments[0].markActive()
+        def update = new DistalDendriteSegment.Update(cell, null, Cell.NOW, null)
+        update.addElement(new Synapse.DistalSynapse(presynapticCells[3]))
+        fixture.temporalPooler.adaptSegments(cell, true)
+        def newSegment = cell.segments.find { !segments.contains(it) }
+
+        expect:
+        cell.segments.size() == 3
+        cell.segments.containsAll([segments[0], segments[2]])
+        segments[1].detached
+        newSegment.hasSynapseFrom(presynapticCells[3])
+        presynapticCells[1].outgoingSynapses.isEmpty()
+        presynapticCells.every { it.outgoingSynapses.every { synapse -> cell.segments.contains(synapse.segment) } }
+
+        cleanup:
+        Cell.updateFromConfig(cfg.cellConfig)
+    }
+
+    @Test
+    void testOutgoingSynapsesSwapRemoved() {
+        setup:
+        def layer = new PoolersFixture(PoolersFixture.loadExample("balls-reflect.xml", 1, Layer.Config.DEFAULT_SEED), 1).layer
+        def presynapticCell = layer.getCellByLayerIndex(0)
+        def segments = (1..30).collect {
+            def segment = new DistalDendriteSegment(layer.getCellByLayerIndex(it * 7), null)
+            segment.addElement(new Synapse.DistalSynapse(presynapticCell))
+            segment
+        }
+        def expected = segments.collect { it.elementsList[0] }
+        def random = new Random(seed)
+        def consistent = true
+        //first, last and random synapses are removed, removing twice changes nothing
+        ([0, segments.size() - 1] + (0..<10).collect { random.nextInt(segments.size()) }).each { int i ->
+            def synapse = segments[i].elementsList.find { true }
+            if (synapse != null) {
+                segments[i].removeElement(synapse)
+                expected.remove(synapse)
+                presynapticCell.removeOutgoingSynapse(synapse)
+            }
+            def outgoing = presynapticCell.outgoingSynapses
+            consistent &= new HashSet(outgoing) == new HashSet(expected) && outgoing.size() == expected.size()
+            consistent &= (0..<outgoing.size()).every { outgoing[it].outgoingIndex == it }
+        }
+
+        expect:
+        expected.size() < segments.size() - 2
+        consistent
+
+        where:
+        seed << [1, 2, 3]
+    }
+}
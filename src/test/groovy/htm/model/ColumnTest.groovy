@@ -0,0 +1,196 @@
+package htm.model
+
+import htm.AbstractSpockTest
+import htm.model.algorithms.PoolersFixture
+import org.junit.Test
+
+class ColumnTest extends AbstractSpockTest {
+    @Test
+    void testStorePermanencesSameAsScan() {
+        setup:
+        def fixture = new PoolersFixture(PoolersFixture.loadExample("balls-reflect_overlap-spatial.xml", 1,
+                                                                   Layer.Config.DEFAULT_SEED), 1)
+        def layer = fixture.layer
+        def store = layer.proximalSynapseStore
+        def inputSpace = layer.inputSpace
+        def threshold = Synapse.ProximalSynapse.CONNECTED_PERMANENCE
+        def mismatches = 0
+        //every slot is read through the store, its view and the connected mask
+        def scan = {
+            layer.elementsList.each { Column column ->
+                def connectedSlots = []
+                column.potentialSynapses.each { Synapse.ProximalSynapse synapse ->
+                    int slot = synapse.slot, storeIndex = store.getStoreIndex(column.index, slot)
+                    double permanence = store.getPermanence(column.index, slot)
+                    if (permanence >= threshold) {
+                        connectedSlots << slot
+                    }
+                    mismatches += synapse.permanence != permanence ? 1 : 0
+                    mismatches += store.getColumnIndex(storeIndex) != column.index || store.getSlot(storeIndex) != slot ? 1 : 0
+                    mismatches += synapse.connected != (permanence >= threshold) ? 1 : 0
+                    mismatches += column.isSynapseConnected(slot) != (permanence >= threshold) ? 1 : 0
+                    mismatches += synapse.connectedSensoryInput.index != store.getInputIndex(column.index, slot) ? 1 : 0
+                }
+                def maskSlots = []
+                for (int slot = column.nextConnectedSynapse(0); slot != -1; slot = column.nextConnectedSynapse(slot + 1)) {
+                    maskSlots << slot
+                }
+                mismatches += maskSlots != connectedSlots || column.connectedSynapsesCount != connectedSlots.size() ? 1 : 0
+            }
+        }
+        40.times {
+            fixture.nextInput()
+            fixture.spatialPooler.execute()
+            fixture.temporalPooler.execute()
+            scan()
+        }
+        //input index holds the store index of every synapse on that input
+        def indexed = new HashSet<Integer>()
+        inputSpace.elementsList.each { input ->
+            int[] storeIndexes = inputSpace.getProximalSynapses(input.index)
+            for (int i = 0; i < inputSpace.getProximalSynapsesCount(input.index); i++) {
+                mismatches += store.getInputIndex(store.getColumnIndex(storeIndexes[i]), store.getSlot(storeIndexes[i])) != input.index ? 1 : 0
+                indexed << storeIndexes[i]
+            }
+        }
+        def allStoreIndexes = layer.elementsList.collectMany { Column column ->
+            (0..<column.potentialSynapsesCount).collect { store.getStoreIndex(column.index, it) }
+        } as Set
+
+        expect:
+        layer.elementsList.any { it.connectedSynapsesCount > 0 }
+        mismatches == 0
+        indexed == allStoreIndexes
+    }
+
+    @Test
+    void testAdaptPermanencesSameAsSynapseLoop() {
+        setup:
+        def fixture = new PoolersFixture(PoolersFixture.loadExample("balls-reflect_overlap-spatial.xml", 1,
+                                                                   Layer.Config.DEFAULT_SEED), 1)
+        def layer = fixture.layer
+        def random = new Random(seed)
+        def increase = Synapse.ProximalSynapse.PERMANENCE_INCREASE, decrease = Synapse.ProximalSynapse.PERMANENCE_DECREASE
+        def threshold = Synapse.ProximalSynapse.CONNECTED_PERMANENCE
+        def mismatches = 0, connectedFlips = 0
+        20.times {
+            layer.inputSpace.elementsList.each { it.value = random.nextBoolean() }
+            layer.elementsList.each { Column column ->
+                def synapses = column.potentialSynapses
+                def before = synapses*.permanence
+                //per synapse baseline: +increase for active inputs, -decrease for others, boosted by a fraction
+                double boost = random.nextInt(4) == 0 ? 0.1 * threshold : 0
+                def expected = (0..<synapses.size()).collect { int i ->
+                    double p = before[i] + (synapses[i].connectedSensoryInput.value ? increase : -decrease)
+                    p = Math.min(Math.max(p, 0), 1)
+                    boost > 0 ? Math.min(Math.max(p + boost, 0), 1) : p
+                }
+                column.adaptPermanences(increase, decrease)
+                if (boost > 0) {
+                    column.increasePermanence(boost)
+                }
+                (0..<synapses.size()).each { int i ->
+                    mismatches += synapses[i].permanence != expected[i] ? 1 : 0
+                    mismatches += column.isSynapseConnected(i) != (expected[i] >= threshold) ? 1 : 0
+                    connectedFlips += (before[i] >= threshold) != (expected[i] >= threshold) ? 1 : 0
+                }
+                mismatches += column.connectedSynapsesCount != expected.count { it >= threshold } ? 1 : 0
+            }
+        }
+
+        expect:
+        connectedFlips > 0
+        mismatches == 0
+
+        where:
+        seed << [1, 2]
+    }
+
+    @Test
+    void testDutyCyclesSameAsSlidingWindow() {
+        setup:
+        def fixture = new PoolersFixture(PoolersFixture.loadExample("balls-reflect_overlap-spatial.xml", 1,
+                                                                   Layer.Config.DEFAULT_SEED), 1)
+        def column = fixture.layer.getElementByIndex(0)
+        double minimalOverlap = fixture.spatialPooler.minimalOverlap
+        def random = new Random(seed)
+        //newest state first, capped at the 1000 iterations of the white paper
+        def activeWindow = [false], overlapWindow = [0.0d]
+        def mismatches = 0
+        2500.times { int step ->
+            boolean active = random.nextInt(3) == 0
+            double overlap = random.nextInt(4) * minimalOverlap / 2
+            column.setActive(active)
+            column.updateOverlap(overlap)
+            activeWindow.add(0, active)
+            overlapWindow.add(0, overlap)
+            if (activeWindow.size() > 1000) {
+                activeWindow.remove(activeWindow.size() - 1)
+                overlapWindow.remove(overlapWindow.size() - 1)
+            }
+            mismatches += column.activeDutyCycle != 1.0d * activeWindow.count { it } / activeWindow.size() ? 1 : 0
+            mismatches += column.overlapDutyCycle != 1.0d * overlapWindow.count { it >= minimalOverlap } / overlapWindow.size() ? 1 : 0
+            mismatches += column.active != active || column.overlap != overlap ? 1 : 0
+            if (step % 97 == 0) {
+                (0..<activeWindow.size()).each { int time ->
+                    mismatches += column.isActive(time) != activeWindow[time] ? 1 : 0
+                }
+            }
+        }
+
+        expect:
+        activeWindow.size() == 1000
+        mismatches == 0
+
+        where:
+        seed << [1, 2]
+    }
+
+    @Test
+    void testConnectedMaskAroundThreshold() {
+        setup:
+        def fixture = new PoolersFixture(PoolersFixture.loadExample("balls-reflect_overlap-spatial.xml", 1,
+                                                                   Layer.Config.DEFAULT_SEED), 1)
+        def column = fixture.layer.getElementByIndex(0)
+        def synapses = column.potentialSynapses
+        def threshold = Synapse.ProximalSynapse.CONNECTED_PERMANENCE
+        def increase = Synapse.ProximalSynapse.PERMANENCE_INCREASE, decrease = Synapse.ProximalSynapse.PERMANENCE_DECREASE
+        def offsets = [-2 * increase, -increase, -Math.ulp(threshold), 0, Math.ulp(threshold), increase, 2 * increase]
+        def mismatches = 0, connectedFlips = 0
+        //mask against the stored permanence, every slot either from a direct write or from adaptation
+        def check = {
+            def connectedSlots = (0..<synapses.size()).findAll { synapses[it].permanence >= threshold }
+            def maskSlots = []
+            for (int slot = column.nextConnectedSynapse(0); slot != -1; slot = column.nextConnectedSynapse(slot + 1)) {
+                maskSlots << slot
+            }
+            mismatches += maskSlots != connectedSlots || column.connectedSynapsesCount != connectedSlots.size() ? 1 : 0
+            mismatches += (0..<synapses.size()).count { synapses[it].connected != column.isSynapseConnected(it) }
+        }
+        synapses.eachWithIndex { synapse, int i -> synapse.permanence = threshold + offsets[i % offsets.size()] }
+        check()
+        fixture.layer.inputSpace.elementsList.eachWithIndex { input, int i -> input.value = i % 3 == 0 }
+        10.times { int step ->
+            def before = synapses*.connected
+            if (step % 4 < 2) {
+                column.adaptPermanences(increase, decrease)
+            } else {
+                column.adaptPermanences(-decrease, -increase)
+            }
+            check()
+            connectedFlips += (0..<synapses.size()).count { synapses[it].connected != before[it] }
+        }
+        //out of range permanences are clamped
+        synapses[0].permanence = -1
+        synapses[1].permanence = 2
+        check()
+
+        expect:
+        connectedFlips > 0
+        mismatches == 0
+        synapses[0].permanence == 0
+        !column.isSynapseConnected(0)
+        synapses[1].permanence == 1
+        column.isSynapseConnected(1)
+    }
+}
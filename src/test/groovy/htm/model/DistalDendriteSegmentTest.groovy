@@ -0,0 +1,131 @@
+package htm.model
+
+import htm.AbstractSpockTest
+import htm.model.algorithms.PoolersFixture
+import org.junit.Test
+
+class DistalDendriteSegmentTest extends AbstractSpockTest {
+    @Test
+    void testActivityCountersSameAsDirectCounts() {
+        setup:
+        def fixture = new PoolersFixture(PoolersFixture.loadExample(example, 1, Layer.Config.DEFAULT_SEED), 1)
+        def layer = fixture.layer
+        def mismatches = 0, activeSegments = 0
+        def check = {
+            layer.elementsList.each { column ->
+                column.elementsList.each { Cell cell ->
+                    cell.segments.each { DistalDendriteSegment segment ->
+                        [Cell.NOW, Cell.BEFORE].each { int time ->
+                            Cell.State.values().each { state ->
+                                int direct = segment.getConnectedWithStateCell(time, state).size()
+                                //second call is served from the counters
+                                2.times { mismatches += segment.getConnectedWithStateCellCount(time, state) != direct ? 1 : 0 }
+                                activeSegments += direct > 0 ? 1 : 0
+                            }
+                            int direct = segment.getActiveCellSynapses(time).size()
+                            2.times { mismatches += segment.getActiveCellSynapsesCount(time) != direct ? 1 : 0 }
+                        }
+                    }
+                }
+            }
+        }
+        steps.times { step ->
+            fixture.nextInput()
+            fixture.spatialPooler.execute()
+            fixture.temporalPooler.nextTimeStep()
+            fixture.temporalPooler.phaseOne()
+            layer.propagateDistalActivity()
+            check()
+            if (step % 10 == 9) {
+                //synapses from current learning cells are added and the oldest synapses removed after propagation
+                def learningCells = layer.elementsList.collectMany { it.elementsList }.findAll {
+                    it.getActiveState(Cell.NOW) && it.getLearnState(Cell.NOW)
+                }
+                layer.elementsList.collectMany { it.elementsList }.collectMany { it.segments }.take(30).each { segment ->
+                    segment.removeElement(segment.elementsList[0])
+                    def fromCell = learningCells.find { it != segment.owner && !segment.hasSynapseFrom(it) }
+                    if (fromCell != null) {
+                        segment.addElement(new Synapse.DistalSynapse(1.0, fromCell))
+                    }
+                }
+                check()
+            }
+            fixture.temporalPooler.phaseTwo()
+            fixture.temporalPooler.phaseThree()
+            check()
+        }
+
+        expect:
+        layer.distalActivityPropagated
+        activeSegments > 0
+        mismatches == 0
+
+        where:
+        example                             | steps
+        "aaax.xml"                          | 40
+        "balls-reflect_overlap-spatial.xml" | 40
+    }
+
+    @Test
+    void testPresynapticIndexSameAsSynapses() {
+        setup:
+        def fixture = new PoolersFixture(PoolersFixture.loadExample("aaax.xml", 1, Layer.Config.DEFAULT_SEED), 1).run(20)
+        def layer = fixture.layer
+        def cells = layer.elementsList.collectMany { it.elementsList }
+        def random = new Random(11)
+        def mismatches = 0, rejected = 0, removed = 0
+        //index of every segment and outgoing synapses of every cell against the segments synapses lists
+        def check = {
+            def outgoing = [:].withDefault { [] as Set }
+            cells.each { Cell cell ->
+                cell.segments.each { DistalDendriteSegment segment ->
+                    def fromCells = segment.elementsList*.fromCell as Set
+                    mismatches += cells.count { segment.hasSynapseFrom(it) != fromCells.contains(it) }
+                    mismatches += segment.elementsList.count { !segment.contains(it) || !it.segment.is(segment) }
+                    mismatches += fromCells.size() != segment.size() ? 1 : 0
+                    segment.elementsList.each { outgoing[it.fromCell.layerIndex] << it }
+                }
+            }
+            mismatches += cells.count { (it.outgoingSynapses as Set) != outgoing[it.layerIndex] || it.outgoingSynapses.size() != outgoing[it.layerIndex].size() }
+        }
+        check()
+        30.times {
+            def segments = cells.collectMany { it.segments }
+            segments.take(60).each { DistalDendriteSegment segment ->
+                switch (random.nextInt(5)) {
+                    case 0:
+                        //a cell the segment already has a synapse from is refused
+                        if (segment.size() > 0) {
+                            def from = segment.elementsList[random.nextInt(segment.size())].fromCell
+                            rejected += segment.addElement(new Synapse.DistalSynapse(from)) ? 0 : 1
+                        }
+                        break
+                    case 1:
+                        if (segment.size() > 0) {
+                            segment.removeElement(segment.elementsList[random.nextInt(segment.size())])
+                            removed++
+                        }
+                        break
+                    case 2:
+                        segment.elementsList.findAll { random.nextInt(3) == 0 }.each { it.permanence = 0 }
+                        removed += segment.removeDeadSynapses()
+                        break
+                    case 3:
+                        removed += segment.removeWeakestSynapses(2, null)
+                        break
+                    default:
+                        3.times { segment.addElement(new Synapse.DistalSynapse(cells[random.nextInt(cells.size())])) }
+                }
+            }
+            segments.findAll { random.nextInt(20) == 0 }.each { it.owner.deleteSegment(it) }
+            check()
+            fixture.run(1)
+            check()
+        }
+
+        expect:
+        rejected > 0
+        removed > 0
+        mismatches == 0
+    }
+}
@@ -0,0 +1,166 @@
+package htm.model
+
+import htm.AbstractSpockTest
+import htm.model.algorithms.PoolersFixture
+import htm.utils.MathUtils
+import org.junit.Test
+
+class LayerTest extends AbstractSpockTest {
+    @Test
+    void testLearningCellIndexSameAsScan() {
+        setup:
+        def fixture = new PoolersFixture(PoolersFixture.loadExample(example, scale, Layer.Config.DEFAULT_SEED),
+                                         parallelism)
+        def layer = fixture.layer
+        def radii = [layer.learningRadius, 1.5, layer.learningRadius * 2]
+        def mismatches = 0, learningCells = 0, staleIndexes = 0
+        def check = { int time ->
+            def index = layer.getLearningCellIndex(time)
+            int[] buffer = new int[index.size()]
+            def learning = layer.elementsList.collectMany { it.elementsList }.findAll { it.getLearnState(time) }
+            radii.each { double radius ->
+                layer.elementsList.each { Column center ->
+                    def expected = learning.findAll {
+                        Math.pow(center.position.x - it.owner.position.x, 2) + Math.pow(center.position.y - it.owner.position.y, 2) <= radius * radius
+                    }*.layerIndex
+                    int count = index.getCellsWithinRadius(center.position, radius, buffer)
+                    mismatches += (buffer[0..<count] as List).sort() != expected ? 1 : 0
+                    learningCells += count
+                }
+            }
+            index
+        }
+        def before = null
+        steps.times {
+            fixture.nextInput()
+            fixture.spatialPooler.execute()
+            fixture.temporalPooler.nextTimeStep()
+            //learn states of the last step moved to Cell.BEFORE, the index of them is built again
+            if (before != null && layer.getLearningCellIndex(Cell.BEFORE).is(before)) {
+                staleIndexes++
+            }
+            def now = layer.getLearningCellIndex(Cell.NOW)
+            fixture.temporalPooler.phaseOne()
+            if (layer.getLearningCellIndex(Cell.NOW).is(now)) {
+                staleIndexes++
+            }
+            check(Cell.NOW)
+            before = check(Cell.BEFORE)
+            fixture.temporalPooler.phaseTwo()
+            fixture.temporalPooler.phaseThree()
+        }
+        fixture.shutdown()
+
+        expect:
+        learningCells > 0
+        mismatches == 0
+        staleIndexes == 0
+
+        where:
+        example                             | scale | parallelism | steps
+        "aaax.xml"                          | 1     | 1           | 15
+        "balls-reflect_overlap-spatial.xml" | 1     | 1           | 15
+        "balls-reflect_overlap-spatial.xml" | 2     | 4           | 8
+    }
+
+    @Test
+    void testNeighborsMaxDutyCyclesSameAsColumnScan() {
+        setup:
+        def fixture = new PoolersFixture(PoolersFixture.loadExample("balls-reflect_overlap-spatial.xml", 1,
+                                                                   Layer.Config.DEFAULT_SEED), 1).run(50)
+        def layer = fixture.layer
+        double radius = radiusOf.call(layer)
+        double[] maxDutyCycles = new double[layer.elementsList.size()]
+        layer.getNeighborsMaxDutyCycles(radius, maxDutyCycles)
+
+        expect:
+        layer.elementsList*.activeDutyCycle.unique().size() > 1
+        layer.elementsList.every { maxDutyCycles[it.index] == it.getMaxDutyCycle(radius) }
+
+        where:
+        radiusOf << [{ 1.0 }, { 1.5 }, { 2.35 }, { 4 }, { it.learningRadius }, { it.longSide * 3 }]
+    }
+
+    @Test
+    void testNeighborIndexesSameAsRadiusScan() {
+        setup:
+        def fixture = new PoolersFixture(PoolersFixture.loadExample("balls-reflect_overlap-spatial.xml", scale,
+                                                                   Layer.Config.DEFAULT_SEED), 1)
+        def layer = fixture.layer
+        int width = layer.dimension.@width, height = layer.dimension.@height
+        double rounded = MathUtils.round(radius, 1)
+        int[] neighbors = new int[layer.getMaxNeighborsCount(radius)]
+        def mismatches = 0, edgeColumns = 0
+        //brute force over all columns of the layer, every column including corners and edges is a center
+        layer.elementsList.each { Column column ->
+            def expected = layer.elementsList.findAll {
+                it != column && Math.pow(column.position.x - it.position.x, 2) + Math.pow(column.position.y - it.position.y, 2) <= rounded * rounded
+            }*.index
+            int count = layer.getNeighborIndexes(column, radius, neighbors)
+            mismatches += (neighbors[0..<count] as List) != expected ? 1 : 0
+            if (column.position.x == 0 || column.position.y == 0 || column.position.x == width - 1 || column.position.y == height - 1) {
+                edgeColumns++
+            }
+        }
+        boolean global = layer.elementsList.every { Column column ->
+            layer.getNeighborIndexes(column, radius, neighbors) == layer.elementsList.size() - 1
+        }
+
+        expect:
+        edgeColumns > 0
+        mismatches == 0
+        layer.isNeighborhoodGlobal(radius) == global
+
+        where:
+        scale | radius
+        1     | 1.0
+        1     | 1.44
+        1     | 2.35
+        1     | 3.96
+        2     | 5.5
+        1     | 100
+    }
+
+    @Test
+    void testReceptiveFieldSizeSameAsRecomputation() {
+        setup:
+        def fixture = new PoolersFixture(PoolersFixture.loadExample("balls-reflect_overlap-spatial.xml", 1,
+                                                                   Layer.Config.DEFAULT_SEED), 1)
+        def layer = fixture.layer
+        def random = new Random(7)
+        def mismatches = 0, sizes = [] as Set
+        //white paper receptive field: distance of the furthest connected synapse, averaged over all columns
+        def check = {
+            def expected = layer.elementsList.collect { Column column ->
+                column.potentialSynapses.findAll { it.permanence >= Synapse.ProximalSynapse.CONNECTED_PERMANENCE }*.distanceToColumn.max() ?: 0d
+            }
+            double sum = 0
+            expected.each { sum += it }
+            mismatches += layer.elementsList.count { it.maxConnectedDistance != expected[it.index] }
+            mismatches += layer.averageReceptiveFieldSize != sum / expected.size() ? 1 : 0
+            sizes << layer.averageReceptiveFieldSize
+        }
+        check()
+        60.times {
+            fixture.nextInput()
+            fixture.spatialPooler.execute()
+            check()
+            //disconnect the furthest synapse or connect a random one of a few columns
+            3.times {
+                Column column = layer.getElementByIndex(random.nextInt(layer.elementsList.size()))
+                def synapses = column.potentialSynapses
+                def connected = synapses.findAll { it.connected }
+                if (random.nextBoolean() && connected) {
+                    connected.max { it.distanceToColumn }.permanence = 0
+                } else {
+                    synapses[random.nextInt(synapses.size())].permanence = 1
+                }
+            }
+            check()
+        }
+
+        expect:
+        sizes.size() > 1
+        mismatches == 0
+    }
+}
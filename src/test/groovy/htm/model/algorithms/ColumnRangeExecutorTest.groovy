@@ -0,0 +1,58 @@
+package htm.model.algorithms
+
+import htm.AbstractSpockTest
+import htm.model.Layer
+import org.junit.Test
+
+class ColumnRangeExecutorTest extends AbstractSpockTest {
+    @Test
+    void testRangesCoverColumns() {
+        setup:
+        def executor = new ColumnRangeExecutor(parallelism)
+        int[] visits = new int[columns]
+        def aligned = true
+        executor.execute(columns, new ColumnRangeExecutor.RangeTask() {
+            @Override void run(int from, int to) {
+                synchronized (visits) {
+                    aligned &= from % 64 == 0
+                    for (int i = from; i < to; i++) {
+                        visits[i]++
+                    }
+                }
+            }
+        })
+        executor.shutdown()
+
+        expect:
+        aligned
+        visits.every { it == 1 }
+
+        where:
+        parallelism | columns
+        1           | 1000
+        4           | 64
+        4           | 65
+        4           | 576
+        16          | 1000
+    }
+
+    @Test
+    void testSpatialParallelSameAsWhitePaper() {
+        setup:
+        def fixture = new PoolersFixture(PoolersFixture.loadExample(example, 2, Layer.Config.DEFAULT_SEED), parallelism)
+        def mismatches = fixture.runAgainstWhitePaper(steps)
+        fixture.shutdown()
+
+        expect:
+        !fixture.layer.skipSpatial
+        fixture.layer.elementsList.size() > 64
+        fixture.layer.elementsList.any { it.boost > 1 }
+        mismatches == 0
+
+        where:
+        example                             | parallelism | steps
+        "balls-reflect_overlap-spatial.xml" | 1           | 60
+        "balls-reflect_overlap-spatial.xml" | 4           | 60
+        "balls-reflect-with-spatial.xml"    | 4           | 60
+    }
+}
@@ -0,0 +1,79 @@
+package htm.model.algorithms
+
+import htm.AbstractSpockTest
+import htm.model.Layer
+import org.junit.Test
+
+class PipelinedRunnerTest extends AbstractSpockTest {
+    @Test
+    void testPipelinedSameAsSequential() {
+        setup:
+        def cfg = PoolersFixture.loadExample(example, 2, Layer.Config.DEFAULT_SEED)
+        def sequential = new PoolersFixture(cfg, parallelism)
+        steps.times {
+            sequential.nextInput()
+            sequential.spatialPooler.execute()
+            sequential.temporalPooler.execute()
+        }
+        sequential.recordState()
+        def pipelined = new PoolersFixture(cfg, parallelism)
+        def runner = new PipelinedRunner(pipelined.spatialPooler, pipelined.temporalPooler)
+        steps.times {
+            pipelined.nextInput()
+            runner.step()
+        }
+        runner.shutdown()
+        pipelined.recordState()
+        [sequential, pipelined]*.shutdown()
+
+        expect:
+        pipelined.layer.cellStateHistory.step == sequential.layer.cellStateHistory.step
+        pipelined.fingerprint() == sequential.fingerprint()
+
+        where:
+        example                             | parallelism | steps
+        "balls-reflect_overlap-spatial.xml" | 1           | 60
+        "balls-reflect_overlap-spatial.xml" | 4           | 60
+        "balls-reflect-with-spatial.xml"    | 1           | 60
+    }
+
+    @Test
+    void testPipelineToggledMidRun() {
+        setup:
+        def cfg = PoolersFixture.loadExample("balls-reflect_overlap-spatial.xml", 2, Layer.Config.DEFAULT_SEED)
+        def directSteps = { PoolersFixture fixture, int steps ->
+            steps.times {
+                fixture.nextInput()
+                fixture.spatialPooler.execute()
+                fixture.temporalPooler.execute()
+            }
+            fixture.recordState()
+            fixture.fingerprint()
+        }
+        def toggled = new PoolersFixture(cfg, 1)
+        def runner = new PipelinedRunner(toggled.spatialPooler, toggled.temporalPooler)
+        def pipelinedSteps = { int steps ->
+            steps.times {
+                toggled.nextInput()
+                runner.step()
+            }
+        }
+        //pipeline is switched off and on again like HTMGraphicInterface.HTMProcess.setPipeline does
+        pipelinedSteps(20)
+        runner.flush()
+        toggled.recordState()
+        def afterFlush = toggled.fingerprint()
+        def afterDirect = directSteps(toggled, 20)
+        pipelinedSteps(20)
+        runner.flush()
+        toggled.recordState()
+        runner.shutdown()
+        def sequential = new PoolersFixture(cfg, 1)
+
+        expect:
+        //flush completes temporal pooling of the last input, then poolers run directly on the current columns
+        afterFlush == directSteps(sequential, 20)
+        afterDirect == directSteps(sequential, 20)
+        toggled.fingerprint() == directSteps(sequential, 20)
+    }
+}
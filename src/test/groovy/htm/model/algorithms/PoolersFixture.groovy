@@ -0,0 +1,235 @@
+package htm.model.algorithms
+
+import htm.model.Cell
+import htm.model.Column
+import htm.model.DistalDendriteSegment
+import htm.model.Layer
+import htm.model.Synapse
+import htm.model.algorithms.spatial.WhitePaperSpatialPooler
+import htm.model.algorithms.temporal.WhitePaperTemporalPooler
+import htm.utils.MathUtils
+import htm.visualizer.HTMGraphicInterface
+import htm.visualizer.Serializer
+
+import java.awt.Dimension
+
+/**
+ * Layer with both poolers built from an example, region and input space are scaled up and patterns tiled
+ * so there are more columns than one column range holds.
+ */
+class PoolersFixture {
+    final Layer layer
+    final WhitePaperSpatialPooler spatialPooler
+    final WhitePaperTemporalPooler temporalPooler
+    final ColumnRangeExecutor executor
+    final List<boolean[]> patterns
+    private int step = 0
+    private long stateHash = 17
+    //active and overlap states of every column, newest first, as long as the white paper sliding window
+    private final List<List<Boolean>> activeHistory
+    private final List<List<Double>> overlapHistory
+
+    static HTMGraphicInterface.Config loadExample(String name, int scale, long seed) {
+        def cfg = Serializer.INSTANCE.loadHTMParameters(new File("examples/" + name))
+        def region = cfg.regionConfig
+        //Dimension getters return doubles, fields are used instead
+        def regionDimension = new Dimension(region.regionDimension.@width * scale, region.regionDimension.@height * scale)
+        Dimension inputDimension = region.sensoryInputDimension
+        def scaledInput = new Dimension(inputDimension.@width * scale, inputDimension.@height * scale)
+        def scaledPatterns = cfg.patterns.collect { boolean[] pattern ->
+            int width = inputDimension.@width, height = inputDimension.@height
+            boolean[] result = new boolean[width * height * scale * scale]
+            for (int y = 0; y < height * scale; y++) {
+                for (int x = 0; x < width * scale; x++) {
+                    result[y * width * scale + x] = pattern[(y % height) * width + x % width]
+                }
+            }
+            result
+        }
+        new HTMGraphicInterface.Config(scaledPatterns, cfg.temporalPoolerConfig, cfg.spatialPoolerConfig,
+                                       new Layer.Config(regionDimension, scaledInput, region.inputRadius,
+                                                        region.learningRadius, region.skipSpatial,
+                                                        region.cellsInColumn, seed),
+                                       cfg.columnConfig, cfg.cellConfig, cfg.proximalSynapseConfig,
+                                       cfg.distalSynapseConfig)
+    }
+
+    PoolersFixture(HTMGraphicInterface.Config cfg, int parallelism) {
+        Column.updateFromConfig(cfg.columnConfig)
+        Cell.updateFromConfig(cfg.cellConfig)
+        Synapse.ProximalSynapse.updateFromConfig(cfg.proximalSynapseConfig)
+        Synapse.DistalSynapse.updateFromConfig(cfg.distalSynapseConfig)
+        patterns = cfg.patterns
+        layer = new Layer(cfg.regionConfig)
+        temporalPooler = (WhitePaperTemporalPooler) new WhitePaperTemporalPooler(cfg.temporalPoolerConfig).setLayer(layer)
+        spatialPooler = (WhitePaperSpatialPooler) new WhitePaperSpatialPooler(cfg.spatialPoolerConfig).setLayer(layer)
+        executor = new ColumnRangeExecutor(parallelism)
+        temporalPooler.setExecutor(executor)
+        spatialPooler.setExecutor(executor)
+        activeHistory = layer.elementsList.collect { [false] }
+        overlapHistory = layer.elementsList.collect { [0d] }
+    }
+
+    /**
+     * Set input of the next pattern
+     */
+    void nextInput() {
+        boolean[] pattern = patterns.get(step++ % patterns.size())
+        for (int i = 0; i < pattern.length; i++) {
+            layer.inputSpace.setInputValue(i, pattern[i])
+        }
+    }
+
+    /**
+     * Run both poolers one after another for steps patterns, remembering columns and cells states after each step
+     */
+    PoolersFixture run(int steps) {
+        steps.times {
+            nextInput()
+            spatialPooler.execute()
+            temporalPooler.execute()
+            recordState()
+            rememberColumns(layer.elementsList*.active, layer.elementsList*.overlap)
+        }
+        this
+    }
+
+    /**
+     * Run both poolers for steps patterns, every spatial pooler step is checked against the white paper pseudo code
+     * computed here from synapse views, neighbors found by distance and plain duty cycle windows.
+     *
+     * @return number of columns which overlap, active state, boost, duty cycles or permanences are different
+     */
+    int runAgainstWhitePaper(int steps) {
+        def columns = layer.elementsList
+        double threshold = Synapse.ProximalSynapse.CONNECTED_PERMANENCE
+        double increase = Synapse.ProximalSynapse.PERMANENCE_INCREASE, decrease = Synapse.ProximalSynapse.PERMANENCE_DECREASE
+        int minOverlap = spatialPooler.minimalOverlap
+        def neighborsByRadius = [:]
+        int mismatches = 0
+        steps.times {
+            nextInput()
+            //averageReceptiveFieldSize: distance of the furthest connected synapse averaged over all columns
+            double radiusSum = 0
+            columns.each { Column column ->
+                radiusSum += column.potentialSynapses.findAll { it.permanence >= threshold }*.distanceToColumn.max() ?: 0d
+            }
+            double radius = MathUtils.round(radiusSum / columns.size(), 1)
+            def neighbors = neighborsByRadius[radius]
+            if (neighbors == null) {
+                neighbors = columns.collect { Column column ->
+                    columns.findAll {
+                        it != column && Math.pow(column.position.x - it.position.x, 2) + Math.pow(column.position.y - it.position.y, 2) <= radius * radius
+                    }*.index
+                }
+                neighborsByRadius[radius] = neighbors
+            }
+            //phase 1: connected synapses with active inputs, zero below minOverlap, times boost
+            def overlaps = columns.collect { Column column ->
+                int count = column.potentialSynapses.count { it.permanence >= threshold && it.connectedSensoryInput.value }
+                count < minOverlap ? 0d : count * column.boost
+            }
+            //phase 2: kthScore of the inhibiting columns sorted by overlap
+            def active = columns.collect { Column column ->
+                def inhibiting = spatialPooler.globalInhibition ? (0..<columns.size()) - column.index : neighbors[column.index]
+                def others = inhibiting.collect { overlaps[it] }.sort().reverse()
+                double kth = others[Math.min(spatialPooler.desiredLocalActivity, others.size()) - 1]
+                overlaps[column.index] > 0 && overlaps[column.index] >= kth
+            }
+            //phase 3: winners learn, then boost and permanence boost by neighbors max duty cycle
+            def permanences = columns.collect { Column column ->
+                column.potentialSynapses.collect { Synapse.ProximalSynapse synapse ->
+                    double permanence = synapse.permanence
+                    if (active[column.index]) {
+                        permanence = Math.min(Math.max(permanence + (synapse.connectedSensoryInput.value ? increase : -decrease), 0), 1)
+                    }
+                    permanence
+                }
+            }
+            rememberColumns(active, overlaps)
+            def activeDutyCycles = activeHistory.collect { 1.0d * it.count { it } / it.size() }
+            def overlapDutyCycles = overlapHistory.collect { 1.0d * it.count { it >= minOverlap } / it.size() }
+            def boosts = columns.collect { Column column ->
+                double minDutyCycle = 0.01 * neighbors[column.index].collect { activeDutyCycles[it] }.max()
+                if (overlapDutyCycles[column.index] < minDutyCycle) {
+                    permanences[column.index] = permanences[column.index].collect { Math.min(Math.max(it + 0.1 * threshold, 0), 1) }
+                }
+                activeDutyCycles[column.index] > minDutyCycle ? 1.0d : column.boost + spatialPooler.boostRate
+            }
+            spatialPooler.execute()
+            columns.each { Column column ->
+                int i = column.index
+                boolean different = column.overlap != overlaps[i] || column.active != active[i] || column.boost != boosts[i] ||
+                                    column.activeDutyCycle != activeDutyCycles[i] || column.overlapDutyCycle != overlapDutyCycles[i] ||
+                                    column.potentialSynapses*.permanence != permanences[i]
+                mismatches += different ? 1 : 0
+            }
+            temporalPooler.execute()
+            recordState()
+        }
+        mismatches
+    }
+
+    void recordState() {
+        for (Column column : layer.elementsList) {
+            mix(column.isActive() ? 1 : 0)
+            mix(column.overlap)
+            for (Cell cell : column.elementsList) {
+                mix((cell.getActiveState(Cell.NOW) ? 1 : 0) + (cell.getLearnState(Cell.NOW) ? 2 : 0)
+                            + 4 * (cell.getPredictInStepState(Cell.NOW) + 1))
+                mix(cell.segments.size())
+                mix(cell.segmentUpdates.size())
+            }
+        }
+    }
+
+    /**
+     * Hash of states recorded after every step, proximal and distal permanences and columns statistics
+     */
+    long fingerprint() {
+        long saved = stateHash
+        for (Column column : layer.elementsList) {
+            mix(column.boost)
+            mix(column.activeDutyCycle)
+            mix(column.overlapDutyCycle)
+            for (Synapse.ProximalSynapse synapse : column.potentialSynapses) {
+                mix(synapse.permanence)
+            }
+            for (Cell cell : column.elementsList) {
+                for (DistalDendriteSegment segment : cell.segments) {
+                    mix(segment.size())
+                    for (Synapse.DistalSynapse synapse : segment.elementsList) {
+                        mix(synapse.permanence)
+                        mix(synapse.fromCell.layerIndex)
+                    }
+                }
+            }
+        }
+        long result = stateHash
+        stateHash = saved
+        result
+    }
+
+    void shutdown() {
+        executor.shutdown()
+    }
+
+    private void rememberColumns(List<Boolean> active, List<Double> overlaps) {
+        for (int i = 0; i < activeHistory.size(); i++) {
+            activeHistory[i].add(0, active[i])
+            overlapHistory[i].add(0, overlaps[i])
+            if (activeHistory[i].size() > 1000) {
+                activeHistory[i].remove(activeHistory[i].size() - 1)
+                overlapHistory[i].remove(overlapHistory[i].size() - 1)
+            }
+        }
+    }
+
+    private void mix(long value) {
+        stateHash = stateHash * 1000003L ^ value
+    }
+
+    private void mix(double value) {
+        mix(Double.doubleToLongBits(value))
+    }
+}
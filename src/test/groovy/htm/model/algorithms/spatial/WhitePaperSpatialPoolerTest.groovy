@@ -0,0 +1,116 @@
+package htm.model.algorithms.spatial
+
+import htm.AbstractSpockTest
+import htm.model.Column
+import htm.model.Layer
+import htm.model.algorithms.PoolersFixture
+import htm.visualizer.HTMGraphicInterface
+import htm.visualizer.Serializer
+import org.junit.Test
+
+class WhitePaperSpatialPoolerTest extends AbstractSpockTest {
+    @Test
+    void testIncrementalOverlapSameAsWhitePaper() {
+        setup:
+        def fixture = new PoolersFixture(PoolersFixture.loadExample(example, 1, Layer.Config.DEFAULT_SEED), 1)
+        def mismatches = fixture.runAgainstWhitePaper(300)
+
+        expect:
+        fixture.spatialPooler.incrementalOverlap
+        !fixture.layer.skipSpatial
+        mismatches == 0
+
+        where:
+        example << ["balls-reflect_overlap-spatial.xml", "balls-reflect-with-spatial.xml"]
+    }
+
+    @Test
+    void testIncrementalOverlapSavedWithParameters() {
+        setup:
+        def example = Serializer.INSTANCE.loadHTMParameters(new File("examples/balls-reflect_overlap-spatial.xml"))
+        def spatial = example.spatialPoolerConfig
+        def cfg = new HTMGraphicInterface.Config(example.patterns, example.temporalPoolerConfig,
+                                                 new SpatialPooler.Config(spatial.minOverlap,
+                                                                          spatial.desiredLocalActivity,
+                                                                          spatial.boostRate, spatial.globalInhibition,
+                                                                          incrementalOverlap),
+                                                 example.regionConfig, example.columnConfig, example.cellConfig,
+                                                 example.proximalSynapseConfig, example.distalSynapseConfig)
+        def out = new ByteArrayOutputStream()
+        Serializer.INSTANCE.saveHTMParameters(out, cfg)
+        def loaded = Serializer.INSTANCE.loadHTMParameters(new ByteArrayInputStream(out.toByteArray()))
+
+        expect:
+        //examples saved before the element existed keep incremental overlap on
+        spatial.incrementalOverlap
+        loaded.spatialPoolerConfig.incrementalOverlap == incrementalOverlap
+        new WhitePaperSpatialPooler(loaded.spatialPoolerConfig).incrementalOverlap == incrementalOverlap
+
+        where:
+        incrementalOverlap << [true, false]
+    }
+
+    @Test
+    void testIndexedOverlapSameAsSynapseLoop() {
+        setup:
+        def fixture = new PoolersFixture(PoolersFixture.loadExample("balls-reflect_overlap-spatial.xml", 1,
+                                                                   Layer.Config.DEFAULT_SEED), 1)
+        def spatialPooler = fixture.spatialPooler
+        spatialPooler.incrementalOverlap = incrementalOverlap
+        def layer = fixture.layer
+        def mismatches = 0, overlapping = 0
+        100.times {
+            fixture.nextInput()
+            spatialPooler.phaseOne()
+            //white paper overlap: connected synapses with active inputs, zero below minOverlap, times boost
+            layer.elementsList.each { Column column ->
+                int count = column.potentialSynapses.count { it.connected && it.connectedSensoryInput.value }
+                double expected = count < spatialPooler.minimalOverlap ? 0 : count * column.boost
+                mismatches += column.overlap != expected ? 1 : 0
+                overlapping += expected > 0 ? 1 : 0
+            }
+            double inhibitionRadius = layer.averageReceptiveFieldSize
+            spatialPooler.phaseThree(spatialPooler.phaseTwo(inhibitionRadius), inhibitionRadius)
+            fixture.temporalPooler.execute()
+        }
+
+        expect:
+        overlapping > 0
+        mismatches == 0
+
+        where:
+        incrementalOverlap << [false, true]
+    }
+
+    @Test
+    void testGlobalInhibitionSameAsOverlapSort() {
+        setup:
+        def fixture = new PoolersFixture(PoolersFixture.loadExample("balls-reflect_overlap-spatial.xml", 1,
+                                                                   Layer.Config.DEFAULT_SEED), 1)
+        def spatialPooler = fixture.spatialPooler
+        spatialPooler.globalInhibition = true
+        def columns = fixture.layer.elementsList
+        def random = new Random(columns.size())
+        def mismatches = 0, winners = 0
+        50.times {
+            columns.each { it.updateOverlap(overlapOf.call(random)) }
+            spatialPooler.phaseTwo(1.0)
+            //white paper kthScore over all other columns of the layer sorted by overlap
+            columns.each { Column column ->
+                def others = columns.findAll { it != column }*.overlap.sort().reverse()
+                double kth = others[Math.min(spatialPooler.desiredLocalActivity, others.size()) - 1]
+                boolean expected = column.overlap > 0 && column.overlap >= kth
+                mismatches += column.active != expected ? 1 : 0
+                winners += expected ? 1 : 0
+            }
+        }
+
+        expect:
+        winners > 0
+        mismatches == 0
+
+        where:
+        //few distinct values make ties around k'th score, zero overlaps never win
+        overlapOf << [{ Random r -> r.nextInt(4) * 1.5d }, { Random r -> r.nextInt(2) * 2.0d }, { Random r -> r.nextDouble() }]
+    }
+}
@@ -0,0 +1,251 @@
+package htm.model.algorithms.temporal
+
+import htm.AbstractSpockTest
+import htm.model.Cell
+import htm.model.DistalDendriteSegment
+import htm.model.Layer
+import htm.model.Synapse
+import htm.model.algorithms.PoolersFixture
+import org.junit.Test
+
+class WhitePaperTemporalPoolerTest extends AbstractSpockTest {
+    @Test
+    void testTemporalParallelSameAsSequential() {
+        setup:
+        def cfg = PoolersFixture.loadExample(example, 2, Layer.Config.DEFAULT_SEED)
+        def sequential = new PoolersFixture(cfg, 1).run(steps)
+        def parallel = new PoolersFixture(cfg, 4).run(steps)
+        parallel.shutdown()
+
+        expect:
+        parallel.layer.skipSpatial
+        parallel.layer.elementsList.size() > 64
+        parallel.fingerprint() == sequential.fingerprint()
+
+        where:
+        example             | steps
+        "balls-reflect.xml" | 80
+        "aaax.xml"          | 80
+        "pong.xml"          | 80
+    }
+
+    @Test
+    void testParallelismSameAsSequential() {
+        setup:
+        def cfg = PoolersFixture.loadExample(example, 3, Layer.Config.DEFAULT_SEED)
+        def sequential = new PoolersFixture(cfg, 1).run(steps)
+        def parallel = new PoolersFixture(cfg, parallelism).run(steps)
+        parallel.shutdown()
+
+        expect:
+        parallel.fingerprint() == sequential.fingerprint()
+
+        where:
+        example                             | parallelism | steps
+        "balls-reflect_overlap-spatial.xml" | 4           | 40
+        "balls-reflect_overlap-spatial.xml" | 16          | 40
+        "aaax.xml"                          | 4           | 60
+        "aaax.xml"                          | 16          | 60
+    }
+
+    @Test
+    void testCellUpdatesConfinedToOneThreadInPhase() {
+        setup:
+        def cfg = PoolersFixture.loadExample("balls-reflect.xml", 2, Layer.Config.DEFAULT_SEED)
+        def fixture = new PoolersFixture(cfg, 4)
+        def threadsByCell = Collections.synchronizedMap(new HashMap<Cell, Set<String>>())
+        def listener = [onSegmentsChange: {}, onUpdatesChange: { Cell.SegmentsChangeEvent e ->
+            def threads = threadsByCell.get(e.source)
+            if (threads == null) {
+                threads = Collections.synchronizedSet(new HashSet<String>())
+                threadsByCell.put((Cell) e.source, threads)
+            }
+            threads.add(Thread.currentThread().name)
+        }] as Cell.SegmentsChangeEventListener
+        fixture.layer.elementsList.each { column -> column.elementsList.each { it.addSegmentsChangeListener(listener) } }
+        def sharedCells = 0, updatedCells = 0
+        def checkPhase = {
+            updatedCells += threadsByCell.size()
+            sharedCells += threadsByCell.values().count { it.size() > 1 }
+            threadsByCell.clear()
+        }
+        40.times {
+            fixture.nextInput()
+            fixture.spatialPooler.execute()
+            fixture.temporalPooler.nextTimeStep()
+            fixture.temporalPooler.phaseOne()
+            checkPhase()
+            fixture.temporalPooler.phaseTwo()
+            checkPhase()
+            fixture.temporalPooler.phaseThree()
+            checkPhase()
+        }
+        fixture.shutdown()
+
+        expect:
+        updatedCells > 0
+        sharedCells == 0
+    }
+
+    @Test
+    void testListenersChangedWhileFiring() {
+        setup:
+        def cfg = PoolersFixture.loadExample("balls-reflect.xml", 2, Layer.Config.DEFAULT_SEED)
+        def fixture = new PoolersFixture(cfg, 4)
+        def fired = Collections.synchronizedList(new ArrayList<Cell>())
+        fixture.layer.elementsList.each { column ->
+            column.elementsList.each { Cell cell ->
+                def listener
+                listener = [onSegmentsChange: {}, onUpdatesChange: { Cell.SegmentsChangeEvent e ->
+                    //one shot listener replaced by a no op one
+                    cell.removeSegmentsChangeListener(listener)
+                    cell.addSegmentsChangeListener([onSegmentsChange: {}, onUpdatesChange: {}] as Cell.SegmentsChangeEventListener)
+                    fired.add(cell)
+                }] as Cell.SegmentsChangeEventListener
+                cell.addSegmentsChangeListener(listener)
+            }
+        }
+        fixture.run(40)
+        fixture.shutdown()
+
+        expect:
+        fired.size() > 0
+        fired.size() == new HashSet<Cell>(fired).size()
+    }
+
+    @Test
+    void testWeakestSynapsesEvictedExceptUpdateOnes() {
+        setup:
+        def cfg = PoolersFixture.loadExample("balls-reflect.xml", 1, Layer.Config.DEFAULT_SEED)
+        def fixture = new PoolersFixture(cfg, 1)
+        def layer = fixture.layer
+        Cell.updateFromConfig(new Cell.Config(4, Cell.TIME_STEPS, Cell.MAX_SEGMENTS, Cell.MAX_SEGMENT_UPDATES,
+                                              Cell.SEGMENT_UPDATES_HORIZON))
+        def cell = layer.getCellByLayerIndex(5)
+        //presynaptic cells of different columns, so synapses not in update are decremented
+        def presynapticCells = (1..6).collect { layer.getCellByLayerIndex(it * layer.cellsInColumn * 3) }
+        def segment = new DistalDendriteSegment(cell, null)
+        def permanences = [0.5, 0.1, 0.3, 0.05]
+        def synapses = (0..<permanences.size()).collect { i ->
+            def synapse = new Synapse.DistalSynapse(permanences[i], presynapticCells[i])
+            segment.addElement(synapse)
+            synapse
+        }
+        //the weakest synapse is in update with two new synapses
+        def update = new DistalDendriteSegment.Update(cell, segment, Cell.NOW, null)
+        update.addAll([synapses[3]])
+        def newSynapses = presynapticCells[4..5].collect { new Synapse.DistalSynapse(it) }
+        newSynapses.each { update.addElement(it) }
+        fixture.temporalPooler.adaptSegments(cell, true)
+
+        expect:
+        segment.size() == 4
+        segment.elementsList.containsAll([synapses[0], synapses[3]] + newSynapses)
+        !segment.hasSynapseFrom(presynapticCells[1])
+        !segment.hasSynapseFrom(presynapticCells[2])
+        presynapticCells[1].outgoingSynapses.isEmpty()
+        presynapticCells[2].outgoingSynapses.isEmpty()
+        presynapticCells[4].outgoingSynapses == [newSynapses[0]]
+        presynapticCells[5].outgoingSynapses == [newSynapses[1]]
+
+        cleanup:
+        Cell.updateFromConfig(cfg.cellConfig)
+    }
+
+    @Test
+    void testDeadSynapsesAndEmptySegmentsRemoved() {
+        setup:
+        def cfg = PoolersFixture.loadExample("balls-reflect.xml", 1, Layer.Config.DEFAULT_SEED)
+        def fixture = new PoolersFixture(cfg, 1)
+        def layer = fixture.layer
+        def cell = layer.getCellByLayerIndex(5)
+        def presynapticCells = (1..3).collect { layer.getCellByLayerIndex(it * layer.cellsInColumn * 3) }
+        //decremented once the synapses permanences drop to 0, but the last one
+        def decrease = Synapse.DistalSynapse.PERMANENCE_DECREASE
+        def emptied = new DistalDendriteSegment(cell, null)
+        presynapticCells[0..1].each { emptied.addElement(new Synapse.DistalSynapse(decrease, it)) }
+        def shrunk = new DistalDendriteSegment(cell, null)
+        shrunk.addElement(new Synapse.DistalSynapse(decrease, presynapticCells[0]))
+        def survivor = new Synapse.DistalSynapse(0.5, presynapticCells[2])
+        shrunk.addElement(survivor)
+        new DistalDendriteSegment.Update(cell, emptied, Cell.NOW, null)
+        new DistalDendriteSegment.Update(cell, shrunk, Cell.NOW, null)
+        fixture.temporalPooler.adaptSegments(cell, true)
+
+        expect:
+        cell.segments == [shrunk]
+        emptied.detached
+        shrunk.elementsList == [survivor]
+        survivor.permanence == 0.5 - decrease
+        presynapticCells[0].outgoingSynapses.isEmpty()
+        presynapticCells[1].outgoingSynapses.isEmpty()
+        presynapticCells[2].outgoingSynapses == [survivor]
+        cell.segmentUpdates.isEmpty()
+    }
+
+    @Test
+    void testSegmentSelectionSameAsStableSort() {
+        setup:
+        def fixture = new PoolersFixture(PoolersFixture.loadExample(example, 1, Layer.Config.DEFAULT_SEED), 1)
+        def temporalPooler = fixture.temporalPooler
+        def cells = fixture.layer.elementsList.collectMany { it.elementsList }
+        def mismatches = 0, ties = 0
+        //two pass baseline: filter, stable sort by preference, take the last
+        def lastOfSorted = { List<DistalDendriteSegment> segments, Closure<Integer> compare ->
+            def sorted = new ArrayList<DistalDendriteSegment>(segments)
+            Collections.sort(sorted, compare as Comparator)
+            if (sorted.size() > 1 && compare.call(sorted[-1], sorted[-2]) == 0) {
+                ties++
+            }
+            sorted ? sorted[-1] : null
+        }
+        def check = {
+            cells.each { Cell cell ->
+                [Cell.NOW, Cell.BEFORE].each { int time ->
+                    Cell.State.values().each { state ->
+                        def active = cell.segments.findAll { temporalPooler.segmentActive(it, time, state) }
+                        def expected = lastOfSorted(active, { DistalDendriteSegment a, DistalDendriteSegment b ->
+                            a.sequenceSegment != b.sequenceSegment ? (a.sequenceSegment ? 1 : -1) :
+                            a.getConnectedWithStateCellCount(time, state) <=> b.getConnectedWithStateCellCount(time, state)
+                        })
+                        mismatches += temporalPooler.getActiveSegment(cell, time, state).is(expected) ? 0 : 1
+                    }
+                    def best = lastOfSorted(cell.segments, { DistalDendriteSegment a, DistalDendriteSegment b ->
+                        a.getActiveCellSynapsesCount(time) <=> b.getActiveCellSynapsesCount(time)
+                    })
+                    def expected = best != null && best.getActiveCellSynapsesCount(time) > temporalPooler.minThreshold ? best : null
+                    mismatches += temporalPooler.getBestMatchingSegment(cell, time).is(expected) ? 0 : 1
+                }
+            }
+        }
+        steps.times {
+            fixture.nextInput()
+            fixture.spatialPooler.execute()
+            temporalPooler.nextTimeStep()
+            temporalPooler.phaseOne()
+            check()
+            temporalPooler.phaseTwo()
+            check()
+            temporalPooler.phaseThree()
+        }
+        //sequence and non sequence copies of learned segments rank equally with them
+        cells.findAll { it.segments }.take(40).each { Cell cell ->
+            new ArrayList<DistalDendriteSegment>(cell.segments).each { DistalDendriteSegment segment ->
+                [null, segment].each { predictedBy ->
+                    def copy = new DistalDendriteSegment(cell, predictedBy)
+                    segment.elementsList.each { copy.addElement(new Synapse.DistalSynapse(it.permanence, it.fromCell)) }
+                }
+            }
+        }
+        check()
+
+        expect:
+        ties > 0
+        mismatches == 0
+
+        where:
+        example             | steps
+        "aaax.xml"          | 60
+        "balls-reflect.xml" | 40
+    }
+}
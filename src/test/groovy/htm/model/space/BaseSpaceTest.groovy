@@ -0,0 +1,39 @@
+package htm.model.space
+
+import htm.AbstractSpockTest
+import org.junit.Test
+
+import java.awt.Point
+
+class BaseSpaceTest extends AbstractSpockTest {
+    @Test
+    void testGetAllWithinRadius() {
+        setup:
+        InputSpace space = new InputSpace(width, height)
+        Point center = new Point(x, y)
+        def expected = space.getElementsList().findAll {
+            Math.pow(center.x - it.position.x, 2) + Math.pow(center.y - it.position.y, 2) <= Math.pow(radius, 2)
+        }
+
+        expect:
+        space.getAllWithinRadius(center, radius) == expected
+
+        where:
+        width | height | x  | y  | radius
+        12    | 8      | 5  | 4  | 3.0
+        12    | 8      | 0  | 0  | 2.5
+        12    | 8      | 11 | 7  | 1.4
+        12    | 8      | 6  | 3  | 0.5
+        12    | 8      | 6  | 3  | 100
+        7     | 15     | 3  | 14 | 4.9
+    }
+
+    @Test
+    void testGetElementByPosition() {
+        setup:
+        InputSpace space = new InputSpace(12, 8)
+
+        expect:
+        space.getElementByPosition(new Point(5, 3)).getIndex() == 3 * 12 + 5
+    }
+}
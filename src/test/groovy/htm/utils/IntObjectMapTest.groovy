@@ -0,0 +1,39 @@
+package htm.utils
+
+import htm.AbstractSpockTest
+import org.junit.Test
+
+class IntObjectMapTest extends AbstractSpockTest{
+    @Test
+    void testSameAsHashMap(){
+        setup:
+        def random = new Random(seed)
+        def map = new IntObjectMap<String>()
+        def set = new IntSet()
+        def expected = new HashMap<Integer, String>()
+        def mismatches = 0
+        1000.times {
+            int key = random.nextInt(range)
+            if (random.nextInt(3) == 0) {
+                if (map.remove(key) != expected.remove(key)) mismatches++
+            } else {
+                if (map.put(key, "v" + it) != expected.put(key, "v" + it)) mismatches++
+                set.add(key)
+            }
+        }
+        (0..<range).each {
+            if (map.get(it) != expected.get(it) || map.containsKey(it) != expected.containsKey(it)) mismatches++
+        }
+
+        expect:
+        mismatches == 0
+        map.size() == expected.size()
+        (0..<range).every { set.contains(it) || !expected.containsKey(it) }
+
+        where:
+        seed | range
+        1    | 16
+        2    | 100
+        3    | 5000
+    }
+}
@@ -1,6 +1,8 @@
 package htm.utils
 
 import htm.AbstractSpockTest
+import htm.model.Layer
+import htm.model.algorithms.PoolersFixture
 import org.junit.Test
 
 /**
@@ -22,4 +24,52 @@ class MathUtilsTest extends AbstractSpockTest{
 
     }
 
+    @Test
+    void testKthLargest(){
+        setup:
+        double[] values = [3.0, 1.0, 4.0, 1.0, 5.0, 9.0, 2.0, 6.0, 5.0, 3.0] as double[]
+        def sorted = (values as List).sort().reverse()
+
+        expect:
+        MathUtils.kthLargest(values.clone() as double[], values.length, k) == sorted[k - 1]
+
+        where:
+        k << (1..10)
+    }
+
+    @Test
+    void testSplitSeed(){
+        expect:
+        MathUtils.splitSeed(seed, key, subKey) == MathUtils.splitSeed(seed, key, subKey)
+        MathUtils.splitSeed(seed, key, subKey) != MathUtils.splitSeed(seed + 1, key, subKey)
+        MathUtils.splitSeed(seed, key, subKey) != MathUtils.splitSeed(seed, key + 1, subKey)
+        MathUtils.splitSeed(seed, key, subKey) != MathUtils.splitSeed(seed, key, subKey + 1)
+        MathUtils.splitSeed(seed, key, subKey) != MathUtils.splitSeed(seed, subKey, key)
+
+        where:
+        seed | key | subKey
+        0    | 0   | -1
+        0    | 1   | 5
+        42   | 100 | 7
+    }
+
+    @Test
+    void testSplitSeedReproducesModel(){
+        setup:
+        def fingerprint = { long seed ->
+            def fixture = new PoolersFixture(PoolersFixture.loadExample(example, 1, seed), 1).run(40)
+            fixture.fingerprint()
+        }
+
+        expect:
+        fingerprint(seed) == fingerprint(seed)
+        fingerprint(seed) != fingerprint(seed + 1)
+
+        where:
+        example                             | seed
+        "balls-reflect_overlap-spatial.xml" | Layer.Config.DEFAULT_SEED
+        "balls-reflect_overlap-spatial.xml" | 7
+        "aaax.xml"                          | Layer.Config.DEFAULT_SEED
+    }
+
 }